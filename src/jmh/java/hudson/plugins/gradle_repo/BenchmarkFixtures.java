@@ -0,0 +1,138 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.plugins.gradle_repo.ChangeLogEntry.ModifiedFile;
+import hudson.util.XStream2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic inputs shared by the benchmarks: manifests, "git log" output and
+ * change log files shaped like the ones the plugin produces.
+ */
+final class BenchmarkFixtures {
+
+    private static final String MARK_A = "[[<as7d9m1R_MARK_A>]]";
+    private static final String MARK_B = "[[<as7d9m1R_MARK_B>]";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Writes a repo.xml with the given number of modules into dir. Every
+     * other module uses a relative origin so both resolution paths run.
+     */
+    static void writeManifest(final File dir, final int moduleCount) throws IOException {
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<manifest>\n");
+        xml.append("    <default branch=\"master\" fetch=\"git@git.example.com:mobile/android\"/>\n");
+        xml.append("    <project origin=\"app\" branch=\"develop\">\n");
+        xml.append("        <include name=\"module0\"/>\n");
+        xml.append("    </project>\n");
+        for (int i = 0; i < moduleCount; i++) {
+            xml.append("    <module name=\"module").append(i).append("\"");
+            if (i % 2 == 0) {
+                xml.append(" origin=\"../components/./module").append(i).append("\"");
+            } else {
+                xml.append(" origin=\"https://git.example.com/mobile/android/module").append(i).append("\"");
+            }
+            xml.append(" local=\"./libs/group").append(i % 10).append("\"");
+            if (i % 3 == 0) {
+                xml.append(" branch=\"feature/").append(i).append("\"");
+            }
+            xml.append("/>\n");
+        }
+        xml.append("</manifest>\n");
+
+        final Writer w = new OutputStreamWriter(new FileOutputStream(new File(dir, "repo.xml")), "UTF-8");
+        try {
+            w.write(xml.toString());
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Builds a project state with the given number of modules. Modules whose
+     * index is a multiple of changeEvery get a revision derived from salt.
+     */
+    static ProjectState projectState(final int moduleCount, final int changeEvery, final String salt) {
+        final ProjectState state = new ProjectState();
+        state.setBranch("master");
+        for (int i = 0; i < moduleCount; i++) {
+            final String revision = i % changeEvery == 0 ? sha(salt + i) : sha("base" + i);
+            state.addProject("./libs/module" + i, "git@git.example.com:mobile/module" + i + ".git", "master", revision);
+        }
+        return state;
+    }
+
+    /**
+     * Generates output in the format ChangeLog asks "git log --raw" for.
+     */
+    static String gitLogOutput(final int commitCount, final int filesPerCommit) {
+        final StringBuilder out = new StringBuilder();
+        for (int c = 0; c < commitCount; c++) {
+            out.append('"').append(MARK_A);
+            out.append(sha("commit" + c)).append(MARK_B);
+            out.append("Author ").append(c % 17).append(MARK_B);
+            out.append("author").append(c % 17).append("@example.com").append(MARK_B);
+            out.append("Mon, 1 Oct 2018 10:00:00 +0800").append(MARK_B);
+            out.append("1538359200").append(MARK_B);
+            out.append("Committer ").append(c % 5).append(MARK_B);
+            out.append("committer").append(c % 5).append("@example.com").append(MARK_B);
+            out.append("Mon, 1 Oct 2018 10:05:00 +0800").append(MARK_B);
+            out.append("1538359500").append(MARK_B);
+            out.append("Change number ").append(c).append("\n\nSome longer description.\n").append(MARK_B);
+            out.append("\"\n\n");
+            for (int f = 0; f < filesPerCommit; f++) {
+                out.append(":100644 100644 1234567... 89abcde... M\t");
+                out.append(filePath(c, f)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a change log file in the format ChangeLog.saveChangeLog uses.
+     */
+    static void writeChangeLog(final File file, final int commitCount, final int filesPerCommit) throws IOException {
+        final List<ChangeLogEntry> logs = new ArrayList<ChangeLogEntry>(commitCount);
+        for (int c = 0; c < commitCount; c++) {
+            final List<ModifiedFile> files = new ArrayList<ModifiedFile>(filesPerCommit);
+            for (int f = 0; f < filesPerCommit; f++) {
+                files.add(new ModifiedFile(filePath(c, f), 'M'));
+            }
+            logs.add(new ChangeLogEntry("./libs/module" + (c % 60), sha("commit" + c),
+                    "Author " + c % 17, "author" + c % 17 + "@example.com", "Mon, 1 Oct 2018 10:00:00 +0800",
+                    "Committer " + c % 5, "committer" + c % 5 + "@example.com", "Mon, 1 Oct 2018 10:05:00 +0800",
+                    "Change number " + c, files));
+        }
+        final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+            new XStream2().toXML(logs, w);
+        } finally {
+            w.close();
+        }
+    }
+
+    private static String filePath(final int commit, final int file) {
+        return "src/main/java/com/example/feature" + commit % 40 + "/ui/Component" + file + ".java";
+    }
+
+    private static String sha(final String seed) {
+        final StringBuilder sb = new StringBuilder(40);
+        int h = seed.hashCode();
+        while (sb.length() < 40) {
+            h = h * 31 + 7;
+            sb.append(Integer.toHexString(h & 0xf));
+        }
+        return sb.toString();
+    }
+}
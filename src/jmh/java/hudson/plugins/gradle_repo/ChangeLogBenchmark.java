@@ -0,0 +1,65 @@
+package hudson.plugins.gradle_repo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing "git log" output at generation time and loading the saved change
+ * log when a build's changes are displayed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeLogBenchmark {
+
+    @Param({"100", "5000"})
+    public int commits;
+
+    @Param({"20"})
+    public int filesPerCommit;
+
+    private String gitLogOutput;
+    private File changelogFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        gitLogOutput = BenchmarkFixtures.gitLogOutput(commits, filesPerCommit);
+        changelogFile = File.createTempFile("changelog", ".xml");
+        BenchmarkFixtures.writeChangeLog(changelogFile, commits, filesPerCommit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        changelogFile.delete();
+    }
+
+    @Benchmark
+    public List<ChangeLogEntry> parseGitLog() {
+        return ChangeLog.parseGitLog("./libs/module0", gitLogOutput);
+    }
+
+    @Benchmark
+    public RepoChangeLogSet parseChangeLogFile() throws IOException, SAXException {
+        return new ChangeLog().parse(null, null, changelogFile);
+    }
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.gradle_repo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap of a loaded change log set, reported as the "retainedKiB"
+ * counter. Run it on two revisions to compare the memory footprint.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ChangeLogHeapBenchmark {
+
+    @Param({"5000", "20000"})
+    public int commits;
+
+    @Param({"20"})
+    public int filesPerCommit;
+
+    private File changelogFile;
+
+    /**
+     * Keeps the loaded set reachable until the next iteration.
+     */
+    private RepoChangeLogSet loaded;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Retained {
+        public long retainedKiB;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        changelogFile = File.createTempFile("changelog", ".xml");
+        BenchmarkFixtures.writeChangeLog(changelogFile, commits, filesPerCommit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        changelogFile.delete();
+    }
+
+    @Benchmark
+    public void retainedHeap(final Retained retained) throws IOException, SAXException {
+        loaded = null;
+        final long before = usedHeap();
+        loaded = new ChangeLog().parse(null, null, changelogFile);
+        retained.retainedKiB = (usedHeap() - before) / 1024;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
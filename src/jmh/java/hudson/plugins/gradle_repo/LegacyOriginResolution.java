@@ -0,0 +1,58 @@
+package hudson.plugins.gradle_repo;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * The origin resolution RepoHelper used before OriginResolver, kept as the
+ * baseline for OriginResolverBenchmark.
+ */
+final class LegacyOriginResolution {
+
+    private LegacyOriginResolution() {
+    }
+
+    static String filterOrigin(RepositoryInfo defaultInfo, String origin) throws URISyntaxException {
+        String url;
+        String fetchUrl = defaultInfo.fetchUrl + "/./" + origin;
+        if (fetchUrl.startsWith("git@")) {
+            String[] temp = fetchUrl.split(":");
+            url = temp[0] + ":" + PathUtils.normalize(temp[1], true);
+        } else {
+            URI uri = new URI(fetchUrl);
+            url = fetchUrl.replace(uri.getPath(), "") + PathUtils.normalize(uri.getPath(), true);
+        }
+
+        if (!url.endsWith(".git")) {
+            url += ".git";
+        }
+        return url;
+    }
+
+    static String filterOrigin(String origin) throws URISyntaxException {
+        String url;
+        if (origin.startsWith("git@")) {
+            String[] temp = origin.split(":");
+            url = temp[0] + ":" + PathUtils.normalize(temp[1], true);
+        } else {
+            URI uri = new URI(origin);
+            url = origin.replace(uri.getPath(), "") + PathUtils.normalize(uri.getPath(), true);
+        }
+
+        if (!url.endsWith(".git")) {
+            url += ".git";
+        }
+        return url;
+    }
+
+    static String parent(String fetchUrl) throws URISyntaxException {
+        if (fetchUrl.startsWith("git@")) {
+            String[] temp = fetchUrl.split(":");
+            return temp[0] + ":" + temp[1].substring(0, temp[1].lastIndexOf("/"));
+        }
+        URI uri = new URI(fetchUrl);
+        String path = uri.getPath();
+        String parent = path.substring(0, path.lastIndexOf("/"));
+        return fetchUrl.replace(uri.getPath(), "") + parent;
+    }
+}
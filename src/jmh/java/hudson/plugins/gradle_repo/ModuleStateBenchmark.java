@@ -0,0 +1,46 @@
+package hudson.plugins.gradle_repo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ModuleState cache under contention, as seen when several builds
+ * record their project state at the same time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Thread)
+public class ModuleStateBenchmark {
+
+    private int counter;
+
+    @Benchmark
+    public ModuleState cachedHit() {
+        counter = (counter + 1) % 64;
+        return ModuleState.constructCachedInstance("./libs/module" + counter,
+                "git@git.example.com:mobile/module" + counter + ".git", "master",
+                "0123456789abcdef0123456789abcdef01234567");
+    }
+
+    @Benchmark
+    public ModuleState cachedMiss() {
+        counter++;
+        return ModuleState.constructCachedInstance("./libs/module" + (counter % 64),
+                "git@git.example.com:mobile/module.git", "master",
+                Integer.toHexString(counter) + Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,109 @@
+package hudson.plugins.gradle_repo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OriginResolver against the URI/split/PathUtils based resolution it
+ * replaced. Run with "-prof gc" to compare allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OriginResolverBenchmark {
+
+    private static final String BASE = "git@git.example.com:mobile/android";
+    private static final String RELATIVE = "../components/./module42";
+    private static final String RELATIVE_NORMALIZED = "module42";
+    private static final String ABSOLUTE = "https://git.example.com/mobile/android/module42";
+    private static final String ABSOLUTE_FINAL = "git@git.example.com:mobile/android/module42.git";
+
+    private RepositoryInfo defaultInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        defaultInfo = new RepositoryInfo();
+        defaultInfo.branch = "master";
+        defaultInfo.fetchUrl = BASE;
+    }
+
+    @Benchmark
+    public String legacyRelative() throws URISyntaxException {
+        return LegacyOriginResolution.filterOrigin(defaultInfo, RELATIVE);
+    }
+
+    @Benchmark
+    public String resolverRelative() {
+        return OriginResolver.resolve(BASE, RELATIVE);
+    }
+
+    @Benchmark
+    public String legacyRelativeNormalized() throws URISyntaxException {
+        return LegacyOriginResolution.filterOrigin(defaultInfo, RELATIVE_NORMALIZED);
+    }
+
+    @Benchmark
+    public String resolverRelativeNormalized() {
+        return OriginResolver.resolve(BASE, RELATIVE_NORMALIZED);
+    }
+
+    @Benchmark
+    public String legacyAbsolute() throws URISyntaxException {
+        return LegacyOriginResolution.filterOrigin(ABSOLUTE);
+    }
+
+    @Benchmark
+    public String resolverAbsolute() {
+        return OriginResolver.resolve(ABSOLUTE);
+    }
+
+    @Benchmark
+    public String legacyAbsoluteFinal() throws URISyntaxException {
+        return LegacyOriginResolution.filterOrigin(ABSOLUTE_FINAL);
+    }
+
+    @Benchmark
+    public String resolverAbsoluteFinal() {
+        return OriginResolver.resolve(ABSOLUTE_FINAL);
+    }
+
+    @Benchmark
+    public String legacyParent() throws URISyntaxException {
+        return LegacyOriginResolution.parent(ABSOLUTE);
+    }
+
+    @Benchmark
+    public String resolverParent() {
+        return OriginResolver.parent(ABSOLUTE);
+    }
+
+    @Benchmark
+    public String normalizeNormalizedPath() {
+        return PathUtils.normalize("mobile/android/module42", true);
+    }
+
+    @Benchmark
+    public String normalizeNormalizedPathFastPath() {
+        return OriginResolver.normalize("mobile/android/module42");
+    }
+
+    @Benchmark
+    public String normalizeDottedPath() {
+        return PathUtils.normalize("mobile/android/./../components/./module42", true);
+    }
+}
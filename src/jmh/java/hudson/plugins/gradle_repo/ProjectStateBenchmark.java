@@ -0,0 +1,46 @@
+package hudson.plugins.gradle_repo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing two recorded project states.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectStateBenchmark {
+
+    @Param({"10", "100", "5000"})
+    public int modules;
+
+    private ProjectState previous;
+    private ProjectState current;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        previous = BenchmarkFixtures.projectState(modules, 1, "previous");
+        current = BenchmarkFixtures.projectState(modules, 7, "current");
+    }
+
+    @Benchmark
+    public List<ModuleState> whatChanged() {
+        return current.whatChanged(previous);
+    }
+}
@@ -0,0 +1,57 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manifest parsing, as done twice per checkout.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepoHelperBenchmark {
+
+    @Param({"10", "100", "5000"})
+    public int modules;
+
+    private File dir;
+    private FilePath workspace;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("repo-bench", "");
+        dir.delete();
+        dir.mkdirs();
+        BenchmarkFixtures.writeManifest(dir, modules);
+        workspace = new FilePath(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        workspace.deleteRecursive();
+    }
+
+    @Benchmark
+    public ProjectState getProjectState() {
+        return RepoHelper.getProjectState(workspace, false, null, null);
+    }
+}
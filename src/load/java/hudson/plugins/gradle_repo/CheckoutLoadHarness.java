@@ -0,0 +1,260 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end checkout load harness. Generates local bare repositories and a
+ * matching repo.xml, then runs RepoScm.checkout through a real Jenkins for a
+ * cold clone, a warm build without changes and a build where a few modules
+ * changed.
+ * <p>
+ * Every git process started with the build environment goes through a shim
+ * that records the command and the bytes it read (rchar from /proc, which
+ * includes reaped children such as upload-pack and index-pack), so the
+ * harness only runs on Linux.
+ * <p>
+ * Tunables (system properties):
+ * <ul>
+ * <li>load.modules - number of module repositories (default 20)</li>
+ * <li>load.commits - commits of history per repository (default 200)</li>
+ * <li>load.changedModules - modules changed before the last build (default 3)</li>
+ * <li>load.output - JSON report location (default target/checkout-load.json)</li>
+ * </ul>
+ */
+public class CheckoutLoadHarness {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final int moduleCount = Integer.getInteger("load.modules", 20);
+    private final int commitCount = Integer.getInteger("load.commits", 200);
+    private final int changedModules = Integer.getInteger("load.changedModules", 3);
+    private final File output = new File(System.getProperty("load.output", "target/checkout-load.json"));
+
+    private File repos;
+    private File shimLog;
+
+    @Test
+    public void checkoutScenarios() throws Exception {
+        repos = tmp.newFolder("repos");
+        shimLog = new File(tmp.getRoot(), "git-shim.log");
+        installGitShim(tmp.newFolder("shim"));
+
+        for (int i = 0; i < moduleCount; i++) {
+            createBareRepo("module" + i, commitCount, "");
+        }
+        createProjectRepo();
+
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setScm(new RepoScm("file://" + new File(repos, "project.git").getAbsolutePath(), "master"));
+
+        JSONArray scenarios = new JSONArray();
+        scenarios.add(runScenario(project, "cold-clone"));
+        scenarios.add(runScenario(project, "warm-no-change"));
+        for (int i = 0; i < Math.min(changedModules, moduleCount); i++) {
+            appendCommits("module" + i, 5, "update");
+        }
+        scenarios.add(runScenario(project, "few-modules-changed"));
+
+        JSONObject report = new JSONObject();
+        report.put("modules", moduleCount);
+        report.put("commits", commitCount);
+        report.put("changedModules", changedModules);
+        report.put("scenarios", scenarios);
+
+        output.getAbsoluteFile().getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            w.write(report.toString(2));
+        } finally {
+            w.close();
+        }
+        System.out.println(report.toString(2));
+    }
+
+    private JSONObject runScenario(FreeStyleProject project, String name) throws Exception {
+        shimLog.delete();
+        long start = System.nanoTime();
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        long wallMillis = (System.nanoTime() - start) / 1000000L;
+
+        int processes = 0;
+        long bytesRead = 0;
+        JSONObject perCommand = new JSONObject();
+        if (shimLog.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(shimLog), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts.length < 2) {
+                        continue;
+                    }
+                    processes++;
+                    bytesRead += Long.parseLong(parts[1]);
+                    perCommand.put(parts[0], perCommand.optInt(parts[0]) + 1);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("build", build.getNumber());
+        result.put("wallTimeMillis", wallMillis);
+        result.put("buildDurationMillis", build.getDuration());
+        result.put("gitProcesses", processes);
+        result.put("gitBytesRead", bytesRead);
+        result.put("gitCommands", perCommand);
+        return result;
+    }
+
+    /**
+     * Puts a "git" wrapper first on the build PATH which appends
+     * "&lt;subcommand&gt; &lt;rchar&gt;" to the shim log for every invocation.
+     */
+    private void installGitShim(File dir) throws IOException {
+        File shim = new File(dir, "git");
+        Writer w = new OutputStreamWriter(new FileOutputStream(shim), "UTF-8");
+        try {
+            w.write("#!/bin/sh\n");
+            w.write("'" + findRealGit() + "' \"$@\"\n");
+            w.write("rc=$?\n");
+            w.write("echo \"$1 $(sed -n 's/^rchar: //p' /proc/$$/io)\" >> '" + shimLog.getAbsolutePath() + "'\n");
+            w.write("exit $rc\n");
+        } finally {
+            w.close();
+        }
+        if (!shim.setExecutable(true)) {
+            throw new IOException("Could not make " + shim + " executable");
+        }
+        j.jenkins.getGlobalNodeProperties().add(new EnvironmentVariablesNodeProperty(
+                new EnvironmentVariablesNodeProperty.Entry("PATH+GITSHIM", dir.getAbsolutePath())));
+    }
+
+    private static String findRealGit() throws IOException {
+        for (String entry : System.getenv("PATH").split(File.pathSeparator)) {
+            File candidate = new File(entry, "git");
+            if (candidate.canExecute()) {
+                return candidate.getAbsolutePath();
+            }
+        }
+        throw new IOException("git not found on PATH");
+    }
+
+    private void createProjectRepo() throws IOException, InterruptedException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        manifest.append("<manifest>\n");
+        manifest.append("    <default branch=\"master\" fetch=\"").append("file://").append(repos.getAbsolutePath()).append("\"/>\n");
+        manifest.append("    <project origin=\"project\"/>\n");
+        for (int i = 0; i < moduleCount; i++) {
+            manifest.append("    <module name=\"module").append(i).append("\" origin=\"module").append(i)
+                    .append("\" local=\"./modules\"/>\n");
+        }
+        manifest.append("</manifest>\n");
+        createBareRepo("project", 1, manifest.toString());
+    }
+
+    /**
+     * Creates repos/&lt;name&gt;.git with the given number of commits using
+     * git fast-import, so large histories are cheap to generate. When
+     * manifest is not empty it is committed as repo.xml.
+     */
+    private void createBareRepo(String name, int commits, String manifest) throws IOException, InterruptedException {
+        File dir = new File(repos, name + ".git");
+        git(repos, null, "init", "--bare", "-q", dir.getName());
+
+        StringBuilder stream = new StringBuilder();
+        for (int c = 1; c <= commits; c++) {
+            appendCommit(stream, name, c, "initial", c == 1 ? null : ":" + (c - 1));
+        }
+        if (!manifest.isEmpty()) {
+            byte[] data = manifest.getBytes("UTF-8");
+            stream.append("commit refs/heads/master\n");
+            stream.append("committer Load Harness <load@example.com> 1500000000 +0000\n");
+            stream.append("data 8\nmanifest\n");
+            if (commits > 0) {
+                stream.append("from :").append(commits).append('\n');
+            }
+            stream.append("M 100644 inline repo.xml\n");
+            stream.append("data ").append(data.length).append('\n').append(manifest).append('\n');
+        }
+        git(dir, stream.toString(), "fast-import", "--quiet");
+    }
+
+    private void appendCommits(String name, int commits, String tag) throws IOException, InterruptedException {
+        StringBuilder stream = new StringBuilder();
+        for (int c = 1; c <= commits; c++) {
+            appendCommit(stream, name, c, tag, c == 1 ? "refs/heads/master^0" : ":" + (c - 1));
+        }
+        git(new File(repos, name + ".git"), stream.toString(), "fast-import", "--quiet");
+    }
+
+    private static void appendCommit(StringBuilder stream, String name, int c, String tag, String from) {
+        String content = name + " " + tag + " change " + c + "\n";
+        stream.append("commit refs/heads/master\n");
+        stream.append("mark :").append(c).append('\n');
+        stream.append("committer Load Harness <load@example.com> ").append(1500000000L + c).append(" +0000\n");
+        String message = tag + " " + c + "\n";
+        stream.append("data ").append(message.length()).append('\n').append(message);
+        if (from != null) {
+            stream.append("from ").append(from).append('\n');
+        }
+        stream.append("M 100644 inline src/").append(tag).append('/').append(c % 50).append(".txt\n");
+        stream.append("data ").append(content.length()).append('\n').append(content).append('\n');
+    }
+
+    private static void git(File dir, String stdin, String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add("git");
+        for (String arg : args) {
+            cmd.add(arg);
+        }
+        Process p = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).start();
+        OutputStream in = p.getOutputStream();
+        try {
+            if (stdin != null) {
+                in.write(stdin.getBytes("UTF-8"));
+            }
+        } finally {
+            in.close();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream s = p.getInputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = s.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        if (p.waitFor() != 0) {
+            throw new IOException(cmd + " failed: " + out.toString("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A limit of concurrent network git commands from one node against one
+ * origin host, adjusted from how the commands go: additive increase,
+ * multiplicative decrease. Every window of commands which completed in
+ * about their usual time raises the limit by one; a command which timed
+ * out, lost its connection or took much longer than usual cuts it by a
+ * quarter, at most once per window. Other failures are not recorded.
+ * <p>
+ * The usual time of a command is tracked per origin and operation, since a
+ * clone of one repository and a fetch of another are not comparable. Limits
+ * live on the controller, which nodes reach for every network command
+ * anyway, so they are kept across builds and agent reconnections, and
+ * dropped when their node is removed.
+ */
+public final class AdaptiveLimit {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.AdaptiveLimit");
+
+    /**
+     * The upper bound when the per-node limit is not set.
+     */
+    static final int DEFAULT_MAX = 8;
+
+    /**
+     * A command taking this many times its usual time is a sign of an
+     * overloaded node or server.
+     */
+    private static final int CONGESTION_FACTOR = 3;
+
+    private static final double DECREASE = 0.75;
+
+    /**
+     * The number of usual times remembered per limit.
+     */
+    private static final int MAX_BASELINES = 1024;
+
+    /**
+     * The limits by node name, then by host.
+     */
+    private static final Map<String, Map<String, AdaptiveLimit>> limits =
+            new HashMap<String, Map<String, AdaptiveLimit>>();
+
+    private final String name;
+    private double limit = -1;
+    private int sinceDecrease;
+    private final Map<String, Long> baselines = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            return size() > MAX_BASELINES;
+        }
+    };
+
+    private AdaptiveLimit(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the limit of a node against a host.
+     */
+    static synchronized AdaptiveLimit forNode(final String nodeName, final String host) {
+        Map<String, AdaptiveLimit> hosts = limits.get(nodeName);
+        if (hosts == null) {
+            hosts = new HashMap<String, AdaptiveLimit>();
+            limits.put(nodeName, hosts);
+        }
+        AdaptiveLimit limit = hosts.get(host);
+        if (limit == null) {
+            limit = new AdaptiveLimit(nodeName + " " + host);
+            hosts.put(host, limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Drops the limits of the nodes not in the given set.
+     */
+    static synchronized void retainNodes(final Set<String> nodeNames) {
+        limits.keySet().retainAll(nodeNames);
+    }
+
+    /**
+     * Returns the current limit. A new limit starts halfway between the
+     * bounds; the bounds are passed on every call so configuration changes
+     * apply immediately.
+     */
+    synchronized int get(final int min, final int max) {
+        if (limit < 0) {
+            limit = Math.max(min, (min + max) / 2);
+        }
+        limit = Math.max(min, Math.min(max, limit));
+        return (int) limit;
+    }
+
+    /**
+     * Records how a command went and adjusts the limit.
+     *
+     * @param operation
+     *            The origin and operation of the command, whose usual time
+     *            it is compared with
+     * @param millis
+     *            The time the command ran
+     * @param succeeded
+     *            Whether the command succeeded, false when it timed out or
+     *            lost its connection
+     */
+    synchronized void record(final String operation, final long millis, final boolean succeeded, final int min,
+                             final int max) {
+        get(min, max);
+        final Long baseline = baselines.get(operation);
+        final boolean slow = baseline != null && millis > CONGESTION_FACTOR * Math.max(baseline, 1000);
+        if (succeeded && (!slow || limit <= min)) {
+            // falls fast and rises slowly, so it stays near the uncongested
+            // time; a slow command only moves it once the limit cannot go
+            // lower, in case the repository simply grew
+            baselines.put(operation, baseline == null ? millis
+                    : millis < baseline ? (baseline + millis) / 2 : baseline + (millis - baseline) / 16);
+        }
+        sinceDecrease++;
+        if (!succeeded || slow) {
+            if (sinceDecrease >= (int) limit) {
+                final int before = (int) limit;
+                limit = Math.max(min, limit * DECREASE);
+                sinceDecrease = 0;
+                if ((int) limit != before) {
+                    debug.info("Lowered the git concurrency of " + name + " to " + (int) limit + " after a "
+                            + (succeeded ? "slow" : "failed") + " " + operation);
+                }
+            }
+            return;
+        }
+        final int before = (int) limit;
+        limit = Math.min(max, limit + 1.0 / limit);
+        if ((int) limit != before) {
+            debug.fine("Raised the git concurrency of " + name + " to " + (int) limit);
+        }
+    }
+
+    /**
+     * Drops the limits and adaptive throttles of removed nodes.
+     */
+    @Extension
+    public static final class NodeListenerImpl extends ComputerListener {
+
+        @Override
+        public void onConfigurationChange() {
+            final Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null) {
+                return;
+            }
+            final Set<String> nodeNames = new HashSet<String>();
+            // the controller itself is named ""
+            nodeNames.add("");
+            for (Node node : jenkins.getNodes()) {
+                nodeNames.add(node.getNodeName());
+            }
+            retainNodes(nodeNames);
+            GitThrottle.retainAdaptive(nodeNames);
+        }
+    }
+}
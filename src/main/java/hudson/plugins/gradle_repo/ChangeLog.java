@@ -30,30 +30,50 @@ import javax.annotation.Nullable;
 
 /**
  * Utility functions to generate and parse a file listing the differences
- * between builds. Differences are saved as a list of ChangeLogEntry.
+ * between builds. Differences are saved as a list of ChangeLogEntry together
+ * with their {@link ChangeLogSummary}; change logs written by older versions
+ * hold the bare list.
  */
 public class ChangeLog extends ChangeLogParser {
 
     private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.ChangeLog");
 
-    // TODO: Really need to add some unit tests for this class. That might
-    // require creating git commits, which will be tricky. See the git plugin
-    // for some possibilities.
+    private static final String CHANGELOG_ALIAS = "gradle-repo-changelog";
+
+    /**
+     * The similarity index, in percent, above which a deleted and an added
+     * file are reported as a rename or a copy. Same as the git default.
+     */
+    static final int DEFAULT_RENAME_SIMILARITY = 50;
+
+    /**
+     * The maximum number of files considered for inexact rename and copy
+     * detection in one commit; larger commits only get exact renames.
+     */
+    static final int DEFAULT_RENAME_LIMIT = 1000;
 
     @Override
     @SuppressWarnings("unchecked")
     public RepoChangeLogSet parse(final Run build, final RepositoryBrowser<?> browser, final File changelogFile) throws IOException, SAXException {
-        final List<ChangeLogEntry> r;
-        final XStream2 xs = new XStream2();
+        final Object obj;
         final Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(changelogFile), "UTF-8"));
         try {
-            final Object obj = xs.fromXML(reader);
-            r = (List<ChangeLogEntry>) obj;
+            obj = createXStream().fromXML(reader);
         } finally {
             reader.close();
         }
 
-        return new RepoChangeLogSet(build, browser, r);
+        if (obj instanceof Stored) {
+            final Stored stored = (Stored) obj;
+            return new RepoChangeLogSet(build, browser, stored.entries, stored.summary);
+        }
+        return new RepoChangeLogSet(build, browser, (List<ChangeLogEntry>) obj);
+    }
+
+    private static XStream2 createXStream() {
+        final XStream2 xs = new XStream2();
+        xs.alias(CHANGELOG_ALIAS, Stored.class);
+        return xs;
     }
 
     /**
@@ -71,6 +91,16 @@ public class ChangeLog extends ChangeLogParser {
      *            differences. This path might be on a slave machine.
      * @param showAllChanges
      *            Add --first-parent to "git log"
+     * @param renameOptions
+     *            The rename and copy detection options of "git log", see
+     *            {@link #renameOptions}
+     * @param durations
+     *            Where to record the time of "git log" per module, or null
+     * @param metrics
+     *            Where to record the time of the change log and the time
+     *            predicted from the durations, or null
+     * @param quiet
+     *            Keep the "git log" command lines out of the build log
      * @throws IOException
      *             is thrown if we have problems writing to the changelogFile
      * @throws InterruptedException
@@ -80,18 +110,21 @@ public class ChangeLog extends ChangeLogParser {
     private static List<ChangeLogEntry> generateChangeLog(
             @Nonnull final ProjectState currentState,
             @Nullable final ProjectState previousState, final Launcher launcher,
-            final FilePath workspace, final boolean showAllChanges)
+            final FilePath workspace, final boolean showAllChanges, final List<String> renameOptions,
+            @Nullable final ModuleDurations durations, @Nullable final CheckoutMetrics metrics,
+            final boolean quiet)
             throws IOException,
             InterruptedException {
         final List<ModuleState> changes = currentState.whatChanged(previousState);
         if (changes == null || changes.size() == 0) {
-            debug.log(Level.INFO, "No changes or the first job");
+            debug.log(Level.FINE, "No changes or the first job");
             // No changes or the first job
             return null;
         }
         final List<String> commands = new ArrayList<String>(5);
         final List<ChangeLogEntry> logs = new ArrayList<ChangeLogEntry>();
-
+        long millis = 0;
+        long predictedMillis = 0;
 
         for (final ModuleState change : changes) {
             if (change.getRevision() == null) {
@@ -122,65 +155,156 @@ public class ChangeLog extends ChangeLogParser {
                     + "%an[[<as7d9m1R_MARK_B>]"
                     + "%ae[[<as7d9m1R_MARK_B>]"
                     + "%aD[[<as7d9m1R_MARK_B>]"
+                    + "%at[[<as7d9m1R_MARK_B>]"
                     + "%cn[[<as7d9m1R_MARK_B>]"
                     + "%ce[[<as7d9m1R_MARK_B>]"
                     + "%cD[[<as7d9m1R_MARK_B>]"
+                    + "%ct[[<as7d9m1R_MARK_B>]"
                     + "%s\n%b[[<as7d9m1R_MARK_B>]";
 
 
             commands.add("--format=\"" + format + "\"");
-            // TODO: make this work with the -M flag to show copied and renamed
-            // files.
+            if (!renameOptions.isEmpty() && !isPartialClone(currentState, change.getPath(), gitdir)) {
+                commands.addAll(renameOptions);
+            }
             // TODO: even better, use jgit to do the diff. It would be faster,
             // more robust, etc. git was used to get this done faster, but jgit
             // is definitely preferable. Most of the code can probably be copied
             // from Gerrit.  It might be tricky with master/slave setup.
             commands.add(change.getRevision() + ".." + newRevision);
             final ByteArrayOutputStream gitOutput = new ByteArrayOutputStream();
-            launcher.launch().stdout(gitOutput).pwd(gitdir).cmds(commands)
+            final long start = System.currentTimeMillis();
+            launcher.launch().quiet(quiet).stdout(gitOutput).pwd(gitdir).cmds(commands)
                     .join();
-            debug.log(Level.INFO, commands.toString());
+            if (durations != null) {
+                final long predicted = durations.predictChangeLog(change.getPath());
+                if (predicted != ModuleDurations.UNKNOWN) {
+                    predictedMillis += predicted;
+                }
+                durations.recordChangeLog(change.getPath(), System.currentTimeMillis() - start);
+            }
+            millis += System.currentTimeMillis() - start;
             final String o = gitOutput.toString("utf-8");
-            final String[] changelogs = o.split(
-                    "\\[\\[<as7d9m1R_MARK_A>\\]\\]");
-            debug.log(Level.INFO, o);
-            for (final String changelog : changelogs) {
-                final String[] parts = changelog.split(
-                        "\\[\\[<as7d9m1R_MARK_B>\\]");
-                if (parts.length  < 9) {
-                    // this is broken
+            if (debug.isLoggable(Level.FINE)) {
+                debug.log(Level.FINE, commands.toString());
+                debug.log(Level.FINE, o);
+            }
+            logs.addAll(parseGitLog(change.getPath(), o));
+        }
+        if (metrics != null) {
+            metrics.recordChangeLog(millis, predictedMillis);
+        }
+        return logs;
+    }
+
+    /**
+     * Returns the "git log" options detecting renames and, optionally,
+     * copies.
+     *
+     * @param copies
+     *            Whether to detect copies as well
+     * @param similarity
+     *            The similarity index in percent, see
+     *            {@link #DEFAULT_RENAME_SIMILARITY}
+     * @param limit
+     *            The rename detection budget, see {@link #DEFAULT_RENAME_LIMIT}
+     */
+    static List<String> renameOptions(final boolean copies, final int similarity, final int limit) {
+        final List<String> options = new ArrayList<String>(3);
+        options.add("-M" + similarity + "%");
+        if (copies) {
+            options.add("-C" + similarity + "%");
+        }
+        options.add("-l" + limit);
+        return options;
+    }
+
+    /**
+     * Sparse modules which are not worktrees are blobless clones, where
+     * rename detection would download the blobs of every added and deleted
+     * file.
+     */
+    private static boolean isPartialClone(final ProjectState state, final String path, final FilePath gitdir)
+            throws IOException, InterruptedException {
+        final ModuleState module = state.modules.get(path);
+        return module != null && !module.getSparsePaths().isEmpty() && new FilePath(gitdir, ".git").isDirectory();
+    }
+
+    /**
+     * Parse the output of the "git log" command issued by generateChangeLog
+     * into a list of change log entries.
+     *
+     * @param path
+     *            The client-side path of the project the log was taken from
+     * @param output
+     *            The raw output of "git log --raw" using our marker format
+     */
+    static List<ChangeLogEntry> parseGitLog(final String path, final String output) {
+        final List<ChangeLogEntry> logs = new ArrayList<ChangeLogEntry>();
+        final String[] changelogs = output.split(
+                "\\[\\[<as7d9m1R_MARK_A>\\]\\]");
+        for (final String changelog : changelogs) {
+            final String[] parts = changelog.split(
+                    "\\[\\[<as7d9m1R_MARK_B>\\]");
+            if (parts.length  < 11) {
+                // this is broken
+                continue;
+            }
+            final String revision       = parts[0];
+            final String authorName     = parts[1];
+            final String authorEmail    = parts[2];
+            final String authorDate     = parts[3];
+            final long authorTime       = parseTime(parts[4]);
+            final String committerName  = parts[5];
+            final String committerEmail = parts[6];
+            final String committerDate  = parts[7];
+            final long committerTime    = parseTime(parts[8]);
+            final String commitText     = parts[9];
+            final String[] fileLines    = parts[10].split("\n");
+
+            final List<ModifiedFile> modifiedFiles =
+                    new ArrayList<ModifiedFile>();
+            for (final String fileLine : fileLines) {
+                final int tab = fileLine.indexOf('\t');
+                if (!fileLine.startsWith(":") || tab < 0) {
                     continue;
                 }
-                final String revision       = parts[0];
-                final String authorName     = parts[1];
-                final String authorEmail    = parts[2];
-                final String authorDate     = parts[3];
-                final String committerName  = parts[4];
-                final String committerEmail = parts[5];
-                final String committerDate  = parts[6];
-                final String commitText     = parts[7];
-                final String[] fileLines    = parts[8].split("\n");
-
-                final List<ModifiedFile> modifiedFiles =
-                        new ArrayList<ModifiedFile>();
-                for (final String fileLine : fileLines) {
-                    if (!fileLine.startsWith(":")) {
-                        continue;
-                    }
-                    final char action = fileLine.substring(37, 38).charAt(0);
-                    final String path = fileLine.substring(39);
-                    modifiedFiles.add(new ModifiedFile(path, action));
+                // ":<mode> <mode> <sha> <sha> <status>\t<path>"; the shas
+                // may or may not carry "..." depending on the git version.
+                // Renames and copies have a score after the status and
+                // "<src>\t<dst>" as path.
+                final char action = fileLine.charAt(fileLine.lastIndexOf(' ', tab) + 1);
+                final int dstTab = action == 'R' || action == 'C' ? fileLine.indexOf('\t', tab + 1) : -1;
+                if (dstTab < 0) {
+                    modifiedFiles.add(new ModifiedFile(fileLine.substring(tab + 1), action));
+                } else {
+                    modifiedFiles.add(new ModifiedFile(fileLine.substring(tab + 1, dstTab),
+                            fileLine.substring(dstTab + 1), action));
                 }
-                ChangeLogEntry nc = new ChangeLogEntry(change.getPath(), revision, authorName, authorEmail,
-                        authorDate, committerName, committerEmail,
-                        committerDate, commitText, modifiedFiles);
-                logs.add(nc);
-                debug.log(Level.INFO, nc.toString());
+            }
+            ChangeLogEntry nc = new ChangeLogEntry(path, revision, authorName, authorEmail,
+                    authorDate, authorTime, committerName, committerEmail,
+                    committerDate, committerTime, commitText, modifiedFiles);
+            logs.add(nc);
+            if (debug.isLoggable(Level.FINE)) {
+                debug.log(Level.FINE, nc.toString());
             }
         }
         return logs;
     }
 
+    /**
+     * Converts the seconds since the epoch printed by %at and %ct to
+     * milliseconds, -1 if malformed.
+     */
+    private static long parseTime(final String seconds) {
+        try {
+            return Long.parseLong(seconds.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Generate a change log file containing the differences between one build
      * and the next and save the result as XML in a specified file. The function
@@ -201,6 +325,15 @@ public class ChangeLog extends ChangeLogParser {
      *            differences. This path might be on a slave machine.
      * @param showAllChanges
      *            Add --first-parent to "git log"
+     * @param renameOptions
+     *            The rename and copy detection options of "git log", see
+     *            {@link #renameOptions}, or an empty list
+     * @param durations
+     *            Where to record the time of "git log" per module, or null
+     * @param metrics
+     *            Where to record the time of the change log, or null
+     * @param quiet
+     *            Keep the "git log" command lines out of the build log
      * @throws IOException
      *             is thrown if we have problems writing to the changelogFile
      * @throws InterruptedException
@@ -210,21 +343,23 @@ public class ChangeLog extends ChangeLogParser {
     static void saveChangeLog(@Nonnull final ProjectState currentState,
                               @Nullable final ProjectState previousState, final File changelogFile,
                               final Launcher launcher, final FilePath workspace,
-                              final boolean showAllChanges)
+                              final boolean showAllChanges, final List<String> renameOptions,
+                              @Nullable final ModuleDurations durations, @Nullable final CheckoutMetrics metrics,
+                              final boolean quiet)
             throws IOException, InterruptedException {
         
-        List<ChangeLogEntry> logs = generateChangeLog(currentState, previousState, launcher, workspace, showAllChanges);
+        List<ChangeLogEntry> logs = generateChangeLog(currentState, previousState, launcher, workspace, showAllChanges,
+                renameOptions, durations, metrics, quiet);
 
         if (logs == null) {
-            debug.info("No logs found");
+            debug.fine("No logs found");
             return;
         }
 
-        final XStream2 xs = new XStream2();
         final AtomicFileWriter w = new AtomicFileWriter(changelogFile);
         try {
             w.write("<?xml version='1.0' encoding='UTF-8'?>\n");
-            xs.toXML(logs, w);
+            createXStream().toXML(new Stored(ChangeLogSummary.of(logs), logs), w);
             w.commit();
         } catch (final StreamException e) {
             throw new IOException("Could not save changelog", e);
@@ -232,4 +367,18 @@ public class ChangeLog extends ChangeLogParser {
             w.close();
         }
     }
+
+    /**
+     * The content of a change log file.
+     */
+    private static final class Stored {
+
+        private final ChangeLogSummary summary;
+        private final List<ChangeLogEntry> entries;
+
+        Stored(final ChangeLogSummary summary, final List<ChangeLogEntry> entries) {
+            this.summary = summary;
+            this.entries = entries;
+        }
+    }
 }
@@ -5,9 +5,12 @@ import hudson.scm.ChangeLogSet;
 import hudson.scm.EditType;
 import hudson.scm.ChangeLogSet.AffectedFile;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.AbstractList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * A POJO containing information about a single change (git commit) in a git
@@ -30,8 +33,22 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         static final EditType RENAME = new EditType("rename",
                 "The file was renamed");
 
-        private final String path;
+        /**
+         * An EditType for a file copied from another one.
+         */
+        static final EditType COPY = new EditType("copy",
+                "The file was copied");
+
+        /**
+         * The path until the file is added to the {@link PathTable} of its
+         * change log set, null afterwards.
+         */
+        private String path;
+        private String srcPath;
         private final char action;
+        private transient PathTable paths;
+        private transient int pathId;
+        private transient int srcPathId = -1;
 
         /**
          * Create a new ModifiedFile object with the given path and action.
@@ -43,15 +60,63 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
          *            for add, D for delete, M for modified, etc)
          */
         ModifiedFile(final String path, final char action) {
+            this(null, path, action);
+        }
+
+        /**
+         * Create a new ModifiedFile for a renamed or copied file.
+         *
+         * @param srcPath
+         *            the path the file was renamed or copied from
+         * @param path
+         *            the path of the file
+         * @param action
+         *            'R' for a rename, 'C' for a copy
+         */
+        ModifiedFile(final String srcPath, final String path, final char action) {
+            this.srcPath = srcPath;
             this.path = path;
             this.action = action;
         }
 
+        /**
+         * Moves the paths into the path table of the change log set.
+         */
+        void intern(final PathTable table) {
+            if (path != null) {
+                pathId = table.intern(path);
+                if (srcPath != null) {
+                    srcPathId = table.intern(srcPath);
+                }
+                paths = table;
+                path = null;
+                srcPath = null;
+            }
+        }
+
+        /**
+         * Saves the paths as plain strings.
+         */
+        private Object writeReplace() {
+            return path != null ? this : new ModifiedFile(getSrcPath(), getPath(), action);
+        }
+
         /**
          * Returns the path of the file.
          */
         public String getPath() {
-            return path;
+            return path != null ? path : paths.path(pathId);
+        }
+
+        /**
+         * Returns the path a renamed or copied file came from, null for
+         * other actions.
+         */
+        public String getSrcPath() {
+            if (path != null) {
+                return srcPath;
+            }
+            return srcPathId < 0 ? null : paths.path(srcPathId);
         }
 
         /**
@@ -73,6 +138,8 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
                 return EditType.EDIT;
             } else if (action == 'R') {
                 return RENAME;
+            } else if (action == 'C') {
+                return COPY;
             } else {
                 return new EditType("unknown: " + action,
                         "An unknown file action");
@@ -88,8 +155,11 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
     private final String committerName;
     private final String committerEmail;
     private final String committerDate;
+    private long authorTime;
+    private long committerTime;
     private final String commitText;
     private final List<ModifiedFile> modifiedFiles;
+    private transient int index;
 
     /**
      * Creates a new REpoChangeLogEntry object containing all the details about
@@ -125,6 +195,28 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
                           final String committerName, final String committerEmail,
                           final String committerDate, final String commitText,
                           final List<ModifiedFile> modifiedFiles) {
+        this(path, revision, authorName, authorEmail, authorDate, -1, committerName, committerEmail,
+                committerDate, -1, commitText, modifiedFiles);
+    }
+
+    /**
+     * Creates a new ChangeLogEntry with the author and commit times already
+     * parsed, as read from "git log" with %at and %ct.
+     *
+     * @param authorTime
+     *            The author time in milliseconds since the epoch, -1 if
+     *            unknown
+     * @param committerTime
+     *            The commit time in milliseconds since the epoch, -1 if
+     *            unknown
+     */
+    // CS IGNORE ParameterNumber FOR NEXT 8 LINES. REASON: see above.
+    public ChangeLogEntry(final String path,
+                          final String revision, final String authorName,
+                          final String authorEmail, final String authorDate, final long authorTime,
+                          final String committerName, final String committerEmail,
+                          final String committerDate, final long committerTime, final String commitText,
+                          final List<ModifiedFile> modifiedFiles) {
         this.path = path;
         this.revision = revision;
         this.authorName = authorName;
@@ -133,10 +225,41 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         this.committerName = committerName;
         this.committerEmail = committerEmail;
         this.committerDate = committerDate;
+        this.authorTime = authorTime;
+        this.committerTime = committerTime;
         this.commitText = commitText;
         this.modifiedFiles = modifiedFiles;
     }
 
+    /**
+     * Change logs written by older versions only have the date strings,
+     * parse them once when loading.
+     */
+    private Object readResolve() {
+        if (authorTime == 0) {
+            authorTime = parseDate(authorDate);
+        }
+        if (committerTime == 0) {
+            committerTime = parseDate(committerDate);
+        }
+        return this;
+    }
+
+    /**
+     * Parses an RFC 2822 date as printed by %aD and %cD, -1 if it cannot be
+     * parsed.
+     */
+    static long parseDate(final String date) {
+        if (date == null) {
+            return -1;
+        }
+        try {
+            return new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.ENGLISH).parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
     /** Converts this ChangeLogEntry to a string for debugging.
      * @return A String of change log entry information.
      */
@@ -190,6 +313,15 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         return authorDate;
     }
 
+    /**
+     * Returns the time this commit was authored, in milliseconds since the
+     * epoch, or -1 if unknown.
+     */
+    @Override
+    public long getTimestamp() {
+        return authorTime;
+    }
+
     /**
      * Returns the committer's name.
      */
@@ -211,6 +343,14 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         return committerDate;
     }
 
+    /**
+     * Returns the time of the commit, in milliseconds since the epoch, or -1
+     * if unknown.
+     */
+    public long getCommitterTimestamp() {
+        return committerTime;
+    }
+
     /**
      * Returns the commit message.
      */
@@ -225,6 +365,37 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         return modifiedFiles;
     }
 
+    /**
+     * Moves the paths of the modified files into the path table of the
+     * change log set.
+     */
+    void internPaths(final PathTable table) {
+        if (modifiedFiles != null) {
+            for (ModifiedFile file : modifiedFiles) {
+                file.intern(table);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of files modified by this change.
+     */
+    public int getModifiedFileCount() {
+        return modifiedFiles == null ? 0 : modifiedFiles.size();
+    }
+
+    /**
+     * Returns the position of this change in its change log set, which
+     * addresses it in {@link RepoChangeLogSet#doFiles}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(final int index) {
+        this.index = index;
+    }
+
     /**
      * Returns a set of paths in the workspace that was
      * affected by this change.
@@ -244,7 +415,25 @@ public class ChangeLogEntry extends ChangeLogSet.Entry {
         if (authorName == null) {
             return User.getUnknown();
         }
-        return User.get(authorEmail);
+        return getUser(authorEmail);
+    }
+
+    /**
+     * Returns the user who committed this change.
+     */
+    public User getCommitter() {
+        if (committerName == null) {
+            return User.getUnknown();
+        }
+        return getUser(committerEmail);
+    }
+
+    private User getUser(final String email) {
+        final ChangeLogSet<?> parent = getParent();
+        if (parent instanceof RepoChangeLogSet) {
+            return ((RepoChangeLogSet) parent).getUser(email);
+        }
+        return User.get(email);
     }
 
     @Override
@@ -0,0 +1,125 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals of a change log, computed once when the change log is generated
+ * and stored with it, so the build page digest does not have to walk every
+ * entry.
+ */
+public final class ChangeLogSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How many authors the summary keeps, the most active first.
+     */
+    static final int TOP_AUTHORS = 10;
+
+    private final int commits;
+    private final int modifiedFiles;
+    private final Map<String, Integer> commitsPerModule;
+    private final List<AuthorCount> topAuthors;
+
+    private ChangeLogSummary(final int commits, final int modifiedFiles, final Map<String, Integer> commitsPerModule,
+                             final List<AuthorCount> topAuthors) {
+        this.commits = commits;
+        this.modifiedFiles = modifiedFiles;
+        this.commitsPerModule = commitsPerModule;
+        this.topAuthors = topAuthors;
+    }
+
+    /**
+     * Computes the summary of the given change log entries.
+     */
+    static ChangeLogSummary of(final List<ChangeLogEntry> logs) {
+        int commits = 0;
+        int modifiedFiles = 0;
+        final Map<String, Integer> commitsPerModule = new LinkedHashMap<String, Integer>();
+        final Map<String, AuthorCount> authors = new LinkedHashMap<String, AuthorCount>();
+        for (ChangeLogEntry log : logs) {
+            if (log.getRevision() == null) {
+                // a module added to or removed from the manifest
+                continue;
+            }
+            commits++;
+            modifiedFiles += log.getModifiedFileCount();
+            final Integer count = commitsPerModule.get(log.getPath());
+            commitsPerModule.put(log.getPath(), count == null ? 1 : count + 1);
+
+            final String key = log.getAuthorEmail() != null ? log.getAuthorEmail() : log.getAuthorName();
+            AuthorCount author = authors.get(key);
+            if (author == null) {
+                author = new AuthorCount(log.getAuthorName(), log.getAuthorEmail());
+                authors.put(key, author);
+            }
+            author.commits++;
+        }
+
+        final List<AuthorCount> topAuthors = new ArrayList<AuthorCount>(authors.values());
+        Collections.sort(topAuthors, new Comparator<AuthorCount>() {
+            public int compare(final AuthorCount a, final AuthorCount b) {
+                return b.commits - a.commits;
+            }
+        });
+        return new ChangeLogSummary(commits, modifiedFiles, commitsPerModule,
+                new ArrayList<AuthorCount>(topAuthors.subList(0, Math.min(TOP_AUTHORS, topAuthors.size()))));
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getModifiedFiles() {
+        return modifiedFiles;
+    }
+
+    /**
+     * Returns the number of commits by module path, in change log order.
+     */
+    public Map<String, Integer> getCommitsPerModule() {
+        return Collections.unmodifiableMap(commitsPerModule);
+    }
+
+    /**
+     * Returns the authors with the most commits, at most {@link #TOP_AUTHORS}.
+     */
+    public List<AuthorCount> getTopAuthors() {
+        return Collections.unmodifiableList(topAuthors);
+    }
+
+    /**
+     * The number of commits of one author.
+     */
+    public static final class AuthorCount implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String email;
+        private int commits;
+
+        AuthorCount(final String name, final String email) {
+            this.name = name;
+            this.email = email;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public int getCommits() {
+            return commits;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.model.InvisibleAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counters collected while checking out a build, exposed through the remote
+ * API of the build so they can be scraped and tracked over time.
+ */
+@ExportedBean
+public class CheckoutMetrics extends InvisibleAction implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int gitTimeouts;
+    private int gitRetries;
+    private long gitQueueWaitMillis;
+    private long maxGitQueueWaitMillis;
+    private long updateMillis;
+    private long predictedUpdateMillis;
+    private int unpredictedModules;
+    private long changeLogMillis;
+    private long predictedChangeLogMillis;
+    private long gitLogBytes;
+    private long suppressedGitLogBytes;
+    private final List<String> timedOutCommands = new ArrayList<String>();
+
+    /**
+     * Records a git command killed because it ran over its timeout.
+     */
+    synchronized void recordTimeout(final String command) {
+        gitTimeouts++;
+        timedOutCommands.add(command);
+    }
+
+    /**
+     * Records a network git command being retried after a failure.
+     */
+    synchronized void recordRetry() {
+        gitRetries++;
+    }
+
+    /**
+     * Records the time a network git command waited for a concurrency slot.
+     */
+    synchronized void recordQueueWait(final long millis) {
+        gitQueueWaitMillis += millis;
+        maxGitQueueWaitMillis = Math.max(maxGitQueueWaitMillis, millis);
+    }
+
+    /**
+     * Records git output written to the build log, and output kept out of
+     * it in quiet mode.
+     */
+    synchronized void recordLog(final long written, final long suppressed) {
+        gitLogBytes += written;
+        suppressedGitLogBytes += suppressed;
+    }
+
+    /**
+     * Records the time a batch of updates took, and the time predicted from
+     * the durations of previous builds.
+     *
+     * @param unpredicted
+     *            The number of repositories of the batch without history,
+     *            left out of the prediction
+     */
+    synchronized void recordBatch(final long millis, final long predictedMillis, final int unpredicted) {
+        updateMillis += millis;
+        predictedUpdateMillis += predictedMillis;
+        unpredictedModules += unpredicted;
+    }
+
+    /**
+     * Records the time the change log took, and the time predicted from
+     * previous builds.
+     */
+    synchronized void recordChangeLog(final long millis, final long predictedMillis) {
+        changeLogMillis += millis;
+        predictedChangeLogMillis += predictedMillis;
+    }
+
+    /**
+     * Adds the counters collected by another instance, such as the one
+     * returned from the node of the workspace.
+     */
+    synchronized void add(final CheckoutMetrics other) {
+        gitTimeouts += other.getGitTimeouts();
+        gitRetries += other.getGitRetries();
+        gitQueueWaitMillis += other.getGitQueueWaitMillis();
+        maxGitQueueWaitMillis = Math.max(maxGitQueueWaitMillis, other.getMaxGitQueueWaitMillis());
+        timedOutCommands.addAll(other.getTimedOutCommands());
+        gitLogBytes += other.getGitLogBytes();
+        suppressedGitLogBytes += other.getSuppressedGitLogBytes();
+    }
+
+    /**
+     * Returns the number of git commands killed on timeout.
+     */
+    @Exported
+    public synchronized int getGitTimeouts() {
+        return gitTimeouts;
+    }
+
+    /**
+     * Returns the number of retried network git commands.
+     */
+    @Exported
+    public synchronized int getGitRetries() {
+        return gitRetries;
+    }
+
+    /**
+     * Returns the total time network git commands waited for a concurrency
+     * slot, in milliseconds.
+     */
+    @Exported
+    public synchronized long getGitQueueWaitMillis() {
+        return gitQueueWaitMillis;
+    }
+
+    /**
+     * Returns the longest time a single network git command waited for a
+     * concurrency slot, in milliseconds.
+     */
+    @Exported
+    public synchronized long getMaxGitQueueWaitMillis() {
+        return maxGitQueueWaitMillis;
+    }
+
+    /**
+     * Returns the number of bytes of git output written to the build log.
+     */
+    @Exported
+    public synchronized long getGitLogBytes() {
+        return gitLogBytes;
+    }
+
+    /**
+     * Returns the number of bytes of git output of successful commands
+     * kept out of the build log in quiet mode.
+     */
+    @Exported
+    public synchronized long getSuppressedGitLogBytes() {
+        return suppressedGitLogBytes;
+    }
+
+    /**
+     * Returns the time spent cloning and updating repositories, in
+     * milliseconds.
+     */
+    @Exported
+    public synchronized long getUpdateMillis() {
+        return updateMillis;
+    }
+
+    /**
+     * Returns the predicted time of cloning and updating the repositories
+     * with a history, in milliseconds.
+     */
+    @Exported
+    public synchronized long getPredictedUpdateMillis() {
+        return predictedUpdateMillis;
+    }
+
+    /**
+     * Returns the number of repositories without durations recorded by
+     * previous builds.
+     */
+    @Exported
+    public synchronized int getUnpredictedModules() {
+        return unpredictedModules;
+    }
+
+    /**
+     * Returns the time spent generating the change log, in milliseconds.
+     */
+    @Exported
+    public synchronized long getChangeLogMillis() {
+        return changeLogMillis;
+    }
+
+    /**
+     * Returns the predicted time of the change log, in milliseconds.
+     */
+    @Exported
+    public synchronized long getPredictedChangeLogMillis() {
+        return predictedChangeLogMillis;
+    }
+
+    /**
+     * Returns the git commands killed on timeout.
+     */
+    @Exported
+    public synchronized List<String> getTimedOutCommands() {
+        return Collections.unmodifiableList(new ArrayList<String>(timedOutCommands));
+    }
+}
@@ -0,0 +1,134 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The repositories of a workspace already brought up to date by a checkout
+ * which did not finish, so that retrying it skips them. Kept on the node in
+ * the temporary directory of the workspace, one line per repository with
+ * the number of the build, its path, origin, branch, sparse paths and
+ * resulting revision, appended as each repository is done.
+ * <p>
+ * Only the build right after the failed one, which retries it, skips the
+ * repositories that build listed; any other build would miss commits pushed
+ * since. A listed repository is skipped only when its target is unchanged
+ * and its HEAD, read from the files of the repository, is still the
+ * recorded revision. A checkpoint not written to for {@link #MAX_AGE} is
+ * deleted.
+ */
+final class Checkpoint {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.Checkpoint");
+
+    /**
+     * The name of the file in the temporary directory of the workspace.
+     */
+    static final String FILE = "gradle-repo-checkpoint";
+
+    static final long MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+    private final int build;
+    private final Map<String, String[]> entries = new HashMap<String, String[]>();
+
+    private Checkpoint(final File file, final int build) {
+        this.file = file;
+        this.build = build;
+    }
+
+    /**
+     * Reads the repositories a checkpoint lists for the given build or the
+     * one before it, empty when the file is missing, stale or unreadable.
+     *
+     * @param build
+     *            The number of the build opening the checkpoint
+     */
+    static Checkpoint open(final File file, final int build) {
+        final Checkpoint checkpoint = new Checkpoint(file, build);
+        if (!file.isFile()) {
+            return checkpoint;
+        }
+        if (System.currentTimeMillis() - file.lastModified() > MAX_AGE) {
+            if (!file.delete()) {
+                debug.warning("Could not delete " + file);
+            }
+            return checkpoint;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split(SEPARATOR, -1);
+                    if (fields.length == 6 && (fields[0].equals(String.valueOf(build))
+                            || fields[0].equals(String.valueOf(build - 1)))) {
+                        checkpoint.entries.put(fields[1], fields);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            debug.warning("Could not read " + file + ": " + e);
+            checkpoint.entries.clear();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Returns the revision recorded for a repository, null if it is not
+     * listed or was listed with another origin, branch or sparse paths.
+     */
+    synchronized String getRevision(final ModuleState module) {
+        final String[] fields = entries.get(module.getPath());
+        if (fields == null || !fields[2].equals(String.valueOf(module.getOrigin()))
+                || !fields[3].equals(String.valueOf(module.getBranch()))
+                || !fields[4].equals(join(module.getSparsePaths()))) {
+            return null;
+        }
+        return fields[5];
+    }
+
+    /**
+     * Records a repository brought up to date.
+     */
+    synchronized void add(final ModuleState module, final String revision) throws IOException {
+        final String line = build + SEPARATOR + module.getPath() + SEPARATOR + module.getOrigin() + SEPARATOR + module.getBranch()
+                + SEPARATOR + join(module.getSparsePaths()) + SEPARATOR + revision + "\n";
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("[repo] - Could not create " + dir);
+        }
+        final OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(line.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        entries.put(module.getPath(), line.substring(0, line.length() - 1).split(SEPARATOR, -1));
+    }
+
+    private static String join(final List<String> paths) {
+        final StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(path);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a "git bundle" of the branches and tags of every repository used by
+ * a Gradle Repo job, refreshed every few hours from a mirror clone on the
+ * controller. New clones on the agents are seeded from these bundles and
+ * only fetch the latest commits from the git server, see
+ * {@link UpdateOptions#setBundleSource}.
+ * <p>
+ * Enabled in the global configuration. The controller needs read access to
+ * the origins. Bundles and mirrors of origins no job uses any more are
+ * deleted. The log of every run is available as the "Gradle Repo clone
+ * bundles" task log.
+ */
+@Extension
+public class CloneBundles extends AsyncPeriodicWork {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.CloneBundles");
+
+    /**
+     * The default directory name, under the Jenkins home.
+     */
+    static final String BUNDLES_DIR = "gradle-repo-bundles";
+
+    private static final String MIRRORS_DIR = "mirrors";
+    private static final String SUFFIX = ".bundle";
+
+    /**
+     * The timeout of "git bundle create", in minutes.
+     */
+    private static final int BUNDLE_TIMEOUT = 30;
+
+    public CloneBundles() {
+        super("Gradle Repo clone bundles");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(6);
+    }
+
+    /**
+     * Returns the name of the bundle of an origin, the same for every form
+     * of its URL.
+     */
+    static String bundleName(final String url) {
+        return WorkspaceSnapshots.group(OriginResolver.canonical(url)) + SUFFIX;
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        final RepoScm.DescriptorImpl descriptor = jenkins.getDescriptorByType(RepoScm.DescriptorImpl.class);
+        if (descriptor == null || !descriptor.isCloneBundles()) {
+            return;
+        }
+        final PrintStream logger = listener.getLogger();
+
+        // every origin once, whichever way it is written
+        final Map<String, String> origins = new LinkedHashMap<String, String>();
+        for (AbstractProject<?, ?> project : jenkins.getAllItems(AbstractProject.class)) {
+            if (!(project.getScm() instanceof RepoScm)) {
+                continue;
+            }
+            final ProjectState state = RepoMaintenance.getLastState(project);
+            if (state == null) {
+                continue;
+            }
+            for (ModuleState module : state.modules.values()) {
+                if (module.getOrigin() != null && !origins.containsKey(bundleName(module.getOrigin()))) {
+                    origins.put(bundleName(module.getOrigin()), module.getOrigin());
+                }
+            }
+        }
+
+        final FilePath root = new FilePath(descriptor.getBundleRoot());
+        final FilePath mirrors = root.child(MIRRORS_DIR);
+        mirrors.mkdirs();
+        final GitHelper gitHelper = new GitHelper(jenkins.createLauncher(listener), new EnvVars(), listener);
+        gitHelper.setTimeouts(GitHelper.DEFAULT_CLONE_TIMEOUT, GitHelper.DEFAULT_FETCH_TIMEOUT, BUNDLE_TIMEOUT);
+        gitHelper.setConcurrencyLimits("", descriptor.getMaxConcurrentPerNode(), descriptor.getMaxConcurrentPerController());
+
+        int refreshed = 0;
+        final long start = System.currentTimeMillis();
+        for (Map.Entry<String, String> origin : origins.entrySet()) {
+            final String name = origin.getKey();
+            final FilePath mirror = mirrors.child(name.substring(0, name.length() - SUFFIX.length()) + ".git");
+            try {
+                GitBundles.refreshBundle(gitHelper, mirror, root.child(name), origin.getValue());
+                refreshed++;
+            } catch (IOException e) {
+                logger.println("[repo] - fail to refresh the bundle of [" + origin.getValue() + "]: " + e);
+            } catch (RuntimeException e) {
+                logger.println("[repo] - fail to refresh the bundle of [" + origin.getValue() + "]: " + e.getMessage());
+            }
+        }
+
+        for (FilePath bundle : root.list()) {
+            final String name = bundle.getName();
+            if (name.endsWith(SUFFIX) && !origins.containsKey(name)) {
+                logger.println("[repo] - delete unused bundle " + name);
+                try {
+                    bundle.delete();
+                    mirrors.child(name.substring(0, name.length() - SUFFIX.length()) + ".git").deleteRecursive();
+                } catch (IOException e) {
+                    logger.println("[repo] - fail to delete unused bundle " + name + ": " + e);
+                }
+            }
+        }
+
+        final String summary = "[repo] - refreshed " + refreshed + " of " + origins.size() + " clone bundles in "
+                + ((System.currentTimeMillis() - start) / 1000) + "s";
+        logger.println(summary);
+        debug.info(summary);
+    }
+
+    /**
+     * Copies bundles from the controller to the nodes.
+     */
+    static final class Source implements GitBundles.BundleSource {
+
+        private final File root;
+
+        Source(final File root) {
+            this.root = root;
+        }
+
+        public boolean copyBundle(final String url, final FilePath target) throws IOException, InterruptedException {
+            final File bundle = new File(root, bundleName(url));
+            if (!bundle.isFile()) {
+                return false;
+            }
+            new FilePath(bundle).copyTo(target);
+            return true;
+        }
+    }
+}
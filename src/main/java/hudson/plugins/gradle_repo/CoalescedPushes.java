@@ -0,0 +1,85 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.model.Action;
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+import hudson.model.queue.FoldableAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The push notifications gathered into one build by {@link PushCoalescer},
+ * exposed through the remote API of the build. When the job is already in
+ * the queue, the pushes are added to the queued build.
+ */
+@ExportedBean
+public class CoalescedPushes extends InvisibleAction implements FoldableAction {
+
+    private final Set<String> modules;
+    private final Set<String> pushes;
+    private int notifications;
+    private long windowMillis;
+
+    CoalescedPushes(final List<String> modules, final List<String> pushes, final int notifications,
+                    final long windowMillis) {
+        this.modules = new LinkedHashSet<String>(modules);
+        this.pushes = new LinkedHashSet<String>(pushes);
+        this.notifications = notifications;
+        this.windowMillis = windowMillis;
+    }
+
+    public void foldIntoExisting(final Queue.Item item, final Queue.Task owner, final List<Action> otherActions) {
+        final CoalescedPushes existing = item.getAction(CoalescedPushes.class);
+        if (existing == null) {
+            item.addAction(this);
+            return;
+        }
+        synchronized (existing) {
+            existing.modules.addAll(modules);
+            existing.pushes.addAll(pushes);
+            existing.notifications += notifications;
+            existing.windowMillis = Math.max(existing.windowMillis, windowMillis);
+        }
+    }
+
+    /**
+     * Returns the paths of the modules the pushes went to, as recorded by
+     * the previous build.
+     */
+    @Exported
+    public synchronized List<String> getModules() {
+        return Collections.unmodifiableList(new ArrayList<String>(modules));
+    }
+
+    /**
+     * Returns the notified repositories, with their branch if given.
+     */
+    @Exported
+    public synchronized List<String> getPushes() {
+        return Collections.unmodifiableList(new ArrayList<String>(pushes));
+    }
+
+    /**
+     * Returns the number of notifications received, including repeated
+     * ones.
+     */
+    @Exported
+    public synchronized int getNotifications() {
+        return notifications;
+    }
+
+    /**
+     * Returns the time between the first notification and scheduling the
+     * build, in milliseconds.
+     */
+    @Exported
+    public synchronized long getWindowMillis() {
+        return windowMillis;
+    }
+}
@@ -0,0 +1,146 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The git side of {@link CloneBundles}: seeding new clones from the bundle
+ * of their origin on the nodes, and writing the bundles from mirrors where
+ * they are kept.
+ */
+final class GitBundles {
+
+    private GitBundles() {
+    }
+
+    /**
+     * Copies the clone bundle of an origin to the node. Exported to the
+     * nodes running {@link UpdateModules}, so the copy is pushed from the
+     * controller.
+     */
+    public interface BundleSource {
+
+        /**
+         * @return false if the origin has no bundle
+         */
+        boolean copyBundle(String url, FilePath target) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Clones from the bundle of the origin, copied from the controller, then
+     * points "origin" back to the real URL and fetches what the bundle
+     * misses. Blobless clones are never seeded since a bundle has all the
+     * blobs.
+     *
+     * @return false when there is no usable bundle and the repository has to
+     *         be cloned from its origin
+     */
+    static boolean cloneFromBundle(GitHelper git, BundleSource bundleSource, FilePath moduleDir, String repositoryUrl,
+                                   String branch) {
+        final String url = git.expand(repositoryUrl);
+        final FilePath bundle = moduleDir.getParent().child("." + moduleDir.getName() + ".bundle");
+        try {
+            try {
+                if (!bundleSource.copyBundle(url, bundle)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                git.getLogger().println("[repo] - could not copy the bundle of [\"" + moduleDir.getName() + "\"]: " + e);
+                return false;
+            }
+
+            List<String> commands = new ArrayList<String>(6);
+            commands.add("git");
+            commands.add("clone");
+            commands.add(bundle.getRemote());
+            if (branch != null) {
+                commands.add("-b");
+                commands.add(git.expand(branch));
+            }
+            commands.add(moduleDir.getName());
+            git.execute(moduleDir.getParent(), commands);
+
+            commands.clear();
+            commands.add("git");
+            commands.add("remote");
+            commands.add("set-url");
+            commands.add("origin");
+            commands.add(url);
+            git.execute(moduleDir, commands);
+
+            commands.clear();
+            commands.add("git");
+            commands.add("fetch");
+            commands.add("origin");
+            git.execute(moduleDir, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+
+            commands.clear();
+            commands.add("git");
+            commands.add("reset");
+            commands.add("--hard");
+            commands.add("@{upstream}");
+            git.execute(moduleDir, commands);
+            git.getLogger().println("[repo] - seeded [\"" + moduleDir.getName() + "\"] from its bundle.");
+            return true;
+        } catch (RuntimeException e) {
+            git.getLogger().println("[repo] - could not seed [\"" + moduleDir.getName() + "\"] from its bundle, cloning: "
+                    + e.getMessage());
+            try {
+                moduleDir.deleteContents();
+            } catch (IOException e1) {
+                throw new RuntimeException("[repo] - fail to clean [\"" + moduleDir.getName() + "\"].");
+            } catch (InterruptedException e1) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("[repo] - interrupted while cleaning [\"" + moduleDir.getName() + "\"].");
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("[repo] - interrupted while copying the bundle of [\"" + moduleDir.getName() + "\"].");
+        } finally {
+            try {
+                bundle.delete();
+            } catch (Exception e) {
+                git.getLogger().println("[repo] - could not delete [" + bundle.getRemote() + "]: " + e);
+            }
+        }
+    }
+
+    /**
+     * Brings the mirror of an origin up to date, cloning it first if
+     * needed, and writes a bundle of its branches and tags.
+     */
+    static void refreshBundle(GitHelper git, FilePath mirror, FilePath bundle, String repositoryUrl)
+            throws IOException, InterruptedException {
+        List<String> commands = new ArrayList<String>(6);
+        if (!mirror.child("HEAD").exists()) {
+            mirror.mkdirs();
+            commands.add("git");
+            commands.add("clone");
+            commands.add("--mirror");
+            commands.add(repositoryUrl);
+            commands.add(mirror.getName());
+            git.execute(mirror.getParent(), commands, git.getLogger(), GitHelper.Operation.CLONE, repositoryUrl, mirror);
+        } else {
+            commands.add("git");
+            commands.add("fetch");
+            commands.add("--prune");
+            commands.add("origin");
+            git.execute(mirror, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+        }
+
+        final FilePath tmp = bundle.getParent().child(bundle.getName() + ".tmp");
+        commands.clear();
+        commands.add("git");
+        commands.add("bundle");
+        commands.add("create");
+        commands.add(tmp.getRemote());
+        commands.add("--branches");
+        commands.add("--tags");
+        git.execute(mirror, commands);
+        tmp.renameTo(bundle);
+    }
+}
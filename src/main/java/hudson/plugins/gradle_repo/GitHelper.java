@@ -3,21 +3,289 @@ package hudson.plugins.gradle_repo;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.security.MasterToSlaveCallable;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
-public class GitHelper {
+public class GitHelper implements Serializable {
 
-    private Launcher launcher;
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of git commands, each with its own timeout. Only network
+     * operations are retried.
+     */
+    enum Operation {
+        CLONE(true), FETCH(true), LOCAL(false);
+
+        private final boolean network;
+
+        Operation(boolean network) {
+            this.network = network;
+        }
+
+        boolean isNetwork() {
+            return network;
+        }
+    }
+
+    /**
+     * Network commands have no timeout unless one is configured, since how
+     * long a clone takes depends on the repository and the connection.
+     */
+    public static final int DEFAULT_CLONE_TIMEOUT = 0;
+    public static final int DEFAULT_FETCH_TIMEOUT = 0;
+    public static final int DEFAULT_LOCAL_TIMEOUT = 5;
+
+    /**
+     * How long, in seconds, an idle shared SSH connection is kept open.
+     */
+    private static final int SSH_CONTROL_PERSIST = 60;
+
+    /**
+     * Base delay of the exponential backoff between retries, in milliseconds.
+     */
+    private static final long RETRY_BASE_DELAY = 5000;
+    private static final long RETRY_MAX_DELAY = 60000;
+
+    private static final Random random = new Random();
+
+    private transient Launcher launcher;
     private EnvVars env;
-    private PrintStream logger;
+    private TaskListener listener;
+    private transient PrintStream logger;
 
-    public GitHelper(Launcher launcher, EnvVars env, PrintStream logger) {
+    private GitOptions options = new GitOptions();
+    private CheckoutMetrics metrics = new CheckoutMetrics();
+    private ControllerSlots controllerSlots = new ControllerThrottle("", 0, 0, 0);
+    private transient GitRefReader refReader = new GitRefReader();
+
+    // the shared SSH connections of the checkout, closed by close()
+    private transient FilePath sshControlDir;
+    private transient String sshCommand;
+    private final Map<String, List<String>> sshDestinations = new LinkedHashMap<String, List<String>>();
+
+    public GitHelper(Launcher launcher, EnvVars env, TaskListener listener) {
         this.launcher = launcher;
         this.env = env;
-        this.logger = logger;
+        this.listener = listener;
+        this.logger = listener.getLogger();
+    }
+
+    /**
+     * Returns a helper with the same options, to run a batch of commands on
+     * the node of a workspace, see {@link UpdateModules} and
+     * {@link MaintainModules}. It has its own metrics and SSH destinations,
+     * to be merged back with {@link #addBatch} once its work is done.
+     *
+     * @param channel
+     *            The channel of the node to export the controller slots to,
+     *            null when the batch runs on the controller
+     */
+    GitHelper copy(VirtualChannel channel) {
+        GitHelper copy = new GitHelper(launcher, env, listener);
+        copy.options = options;
+        copy.controllerSlots = channel == null ? controllerSlots : channel.export(ControllerSlots.class, controllerSlots);
+        copy.refReader = refReader;
+        return copy;
+    }
+
+    /**
+     * Adds the metrics and SSH destinations of a batch run by a
+     * {@link #copy}.
+     */
+    void addBatch(CheckoutMetrics batchMetrics, Map<String, List<String>> batchSshDestinations) {
+        metrics.add(batchMetrics);
+        synchronized (sshDestinations) {
+            sshDestinations.putAll(batchSshDestinations);
+        }
+    }
+
+    /**
+     * Returns whether the launcher wraps the commands it starts, like a
+     * launcher into a container or with extra environment from a build
+     * wrapper. Such a launcher cannot be replaced by a local one on the node,
+     * so batches then run from the controller through it.
+     */
+    boolean isDecorated() {
+        return !(launcher instanceof Launcher.LocalLauncher) && !(launcher instanceof Launcher.RemoteLauncher);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // a copy sent to the node of the workspace runs git right there,
+        // which only happens for plain launchers, see isDecorated()
+        launcher = new Launcher.LocalLauncher(listener);
+        logger = listener.getLogger();
+        refReader = new GitRefReader();
+    }
+
+    GitOptions getOptions() {
+        return options;
+    }
+
+    CheckoutMetrics getMetrics() {
+        return metrics;
+    }
+
+    Map<String, List<String>> getSshDestinations() {
+        return sshDestinations;
+    }
+
+    PrintStream getLogger() {
+        return logger;
+    }
+
+    /**
+     * Expands the variables of the build environment in a URL or branch.
+     */
+    String expand(String value) {
+        return env.expand(value);
+    }
+
+    /**
+     * Sets the timeouts, in minutes, of clone, fetch/pull and local git
+     * commands, 0 for none. A git command running longer is killed along
+     * with its child processes.
+     */
+    public void setTimeouts(int cloneTimeout, int fetchTimeout, int localTimeout) {
+        options.setTimeouts(cloneTimeout, fetchTimeout, localTimeout);
+    }
+
+    /**
+     * Sets how many times a failed or timed out network command is retried.
+     */
+    public void setRetries(int retries) {
+        options.setRetries(retries);
+    }
+
+    public void setMetrics(CheckoutMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Keeps the output of successful git commands out of the build log,
+     * printing each batch of updates as one line per repository instead.
+     * A failed command still prints its command line and full output.
+     */
+    public void setQuiet(boolean quiet) {
+        options.setQuiet(quiet);
+    }
+
+    /**
+     * Limits the number of concurrent clones and fetches against one origin
+     * host, from the given node and from the whole controller. Local
+     * commands are never limited.
+     *
+     * @param nodeName
+     *            The name of the node the workspace lives on
+     * @param perNode
+     *            The limit per node and host, 0 for none
+     * @param perController
+     *            The limit per host across all nodes, 0 for none
+     */
+    public void setConcurrencyLimits(String nodeName, int perNode, int perController) {
+        options.setConcurrencyLimits(nodeName, perNode, perController);
+        this.controllerSlots = new ControllerThrottle(nodeName, perController, 0, 0);
+    }
+
+    /**
+     * Adjusts the number of concurrent clones and fetches from the node
+     * against one origin host to how they go, between the given bounds,
+     * see {@link AdaptiveLimit}. Call after
+     * {@link #setConcurrencyLimits}.
+     *
+     * @param min
+     *            The lowest limit, at least 1
+     * @param max
+     *            The highest limit
+     */
+    public void setAdaptiveConcurrency(int min, int max) {
+        this.controllerSlots = new ControllerThrottle(options.getNodeName(), options.getMaxConcurrentPerController(),
+                Math.max(1, min), Math.max(Math.max(1, min), max));
+    }
+
+    /**
+     * Makes clones and fetches over SSH share one master connection per
+     * origin host, instead of doing a full handshake for every command.
+     * The control sockets live in a private temporary directory on the node
+     * of the workspace and are closed by {@link #close()}.
+     * <p>
+     * Nothing is done on Windows nodes, or when GIT_SSH is set since
+     * GIT_SSH_COMMAND would take precedence over it.
+     */
+    public void enableSshMultiplexing(FilePath workspace) throws IOException, InterruptedException {
+        if (!launcher.isUnix()) {
+            return;
+        }
+        if (env.get("GIT_SSH") != null) {
+            logger.println("[repo] - GIT_SSH is set, not sharing SSH connections.");
+            return;
+        }
+        sshControlDir = new FilePath(workspace.getChannel(), workspace.act(new CreateControlDir()));
+
+        sshCommand = env.get("GIT_SSH_COMMAND");
+        if (sshCommand == null || sshCommand.trim().isEmpty()) {
+            sshCommand = "ssh";
+        }
+        EnvVars sshEnv = new EnvVars(env);
+        sshEnv.put("GIT_SSH_COMMAND", sshCommand
+                + " -o ControlMaster=auto"
+                + " -o ControlPath='" + sshControlDir.getRemote() + "/%C'"
+                + " -o ControlPersist=" + SSH_CONTROL_PERSIST);
+        options.setSshEnv(sshEnv);
+    }
+
+    /**
+     * Closes the shared SSH connections opened during the checkout and
+     * removes their control sockets. The exit request goes through the
+     * command of GIT_SSH_COMMAND, run by the shell as git does, so that the
+     * options which select the connection, like a port or a configuration
+     * file, give the same control socket.
+     */
+    public void close() {
+        if (sshControlDir == null) {
+            return;
+        }
+        for (List<String> destination : sshDestinations.values()) {
+            StringBuilder exit = new StringBuilder(sshCommand)
+                    .append(" -o ControlPath='").append(sshControlDir.getRemote()).append("/%C' -O exit");
+            for (String argument : destination) {
+                exit.append(" '").append(argument.replace("'", "'\\''")).append('\'');
+            }
+            List<String> commands = new ArrayList<String>(3);
+            commands.add("sh");
+            commands.add("-c");
+            commands.add(exit.toString());
+            try {
+                launcher.launch().stdout(new ByteArrayOutputStream()).cmds(commands).envs(env)
+                        .start().joinWithTimeout(options.getLocalTimeout(), TimeUnit.MINUTES, listener);
+            } catch (Exception e) {
+                logger.println("[repo] - fail to close SSH connection to " + destination + ": " + e);
+            }
+        }
+        sshDestinations.clear();
+        try {
+            sshControlDir.deleteRecursive();
+        } catch (Exception e) {
+            logger.println("[repo] - fail to delete [" + sshControlDir.getRemote() + "]: " + e);
+        }
+        sshControlDir = null;
+        options.setSshEnv(null);
+        sshCommand = null;
     }
 
     public boolean isGit(FilePath moduleDir) {
@@ -29,16 +297,22 @@ public class GitHelper {
     }
 
     public void clone(FilePath moduleDir, String repositoryUrl, String branch) {
-        try {
-            if(!moduleDir.exists()) {
-                moduleDir.mkdirs();
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("[repo] - fail to mkdirs [\"" + moduleDir.getName() + "\"].");
-        }
-        List<String> commands = new ArrayList<String>(7);
+        clone(moduleDir, repositoryUrl, branch, Collections.<String>emptyList());
+    }
+
+    /**
+     * Clones a repository. With sparse paths the clone is blobless and only
+     * those directories are checked out, in cone mode.
+     */
+    public void clone(FilePath moduleDir, String repositoryUrl, String branch, List<String> sparsePaths) {
+        mkdirs(moduleDir);
+        List<String> commands = new ArrayList<String>(9);
         commands.add("git");
         commands.add("clone");
+        if (!sparsePaths.isEmpty()) {
+            commands.add("--filter=blob:none");
+            commands.add("--sparse");
+        }
         commands.add(env.expand(repositoryUrl));
         if (branch != null) {
             commands.add("-b");
@@ -47,39 +321,153 @@ public class GitHelper {
         commands.add("-l");
         commands.add(moduleDir.getName());
 
-        int resultCode;
+        execute(moduleDir.getParent(), commands, logger, Operation.CLONE, repositoryUrl, moduleDir);
+        if (!sparsePaths.isEmpty()) {
+            setSparsePaths(moduleDir, repositoryUrl, sparsePaths);
+        }
+    }
+
+    void mkdirs(FilePath moduleDir) {
         try {
-            resultCode = launcher.launch().stdout(logger).pwd(moduleDir.getParent()).cmds(commands).envs(env).join();
+            if(!moduleDir.exists()) {
+                moduleDir.mkdirs();
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("[repo] - git fail to execute [" + array2String(commands) + "]");
+            throw new RuntimeException("[repo] - fail to mkdirs [\"" + moduleDir.getName() + "\"].");
         }
-        if (resultCode != 0) {
-            throw new RuntimeException("[repo] - git fail to execute [" + array2String(commands) + "]");
+    }
+
+    /**
+     * Returns the head of every branch of an origin, by branch name, as
+     * advertised by "git ls-remote --heads".
+     *
+     * @param dir
+     *            The directory to run git in
+     */
+    public Map<String, String> lsRemoteHeads(FilePath dir, String repositoryUrl) {
+        List<String> commands = new ArrayList<String>(4);
+        commands.add("git");
+        commands.add("ls-remote");
+        commands.add("--heads");
+        commands.add(repositoryUrl);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        execute(dir, commands, output, Operation.FETCH, repositoryUrl, null);
+
+        final Map<String, String> heads = new HashMap<String, String>();
+        try {
+            for (String line : output.toString("UTF-8").split("\n")) {
+                final int tab = line.indexOf('\t');
+                if (tab > 0 && line.startsWith("refs/heads/", tab + 1)) {
+                    heads.put(line.substring(tab + 1 + "refs/heads/".length()).trim(), line.substring(0, tab));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
         }
+        return heads;
+    }
+
+    /**
+     * Restricts the checkout to the given directories, in cone mode. In a
+     * blobless clone this fetches the missing blobs, so it counts as a
+     * network command.
+     */
+    void setSparsePaths(FilePath moduleDir, String repositoryUrl, List<String> sparsePaths) {
+        List<String> commands = new ArrayList<String>(4 + sparsePaths.size());
+        commands.add("git");
+        commands.add("sparse-checkout");
+        commands.add("set");
+        commands.add("--cone");
+        commands.addAll(sparsePaths);
+        execute(moduleDir, commands, logger, Operation.FETCH, repositoryUrl, null);
     }
 
-    public void pull(FilePath moduleDir, String branch) {
+    public void pull(FilePath moduleDir, String repositoryUrl, String branch) {
         List<String> commands = new ArrayList<String>(4);
         commands.add("git");
         commands.add("pull");
         commands.add("origin");
         commands.add(branch);
+        execute(moduleDir, commands, logger, Operation.FETCH, repositoryUrl, null);
+    }
+
+    /**
+     * Brings a clone to the head of the remote branch by fetching only that
+     * branch and hard resetting onto it. No merge is ever made and local
+     * drift is discarded.
+     *
+     * @param clean
+     *            Also run "git clean -fdx" when the revision moved. Nested
+     *            repositories (modules inside the project) are left alone.
+     * @return the revision the clone is now at, read from FETCH_HEAD
+     */
+    public String fetchAndReset(FilePath moduleDir, String repositoryUrl, String branch, boolean clean) {
+        List<String> commands = new ArrayList<String>(4);
+        commands.add("git");
+        commands.add("fetch");
+        commands.add("origin");
+        commands.add(branch);
+        execute(moduleDir, commands, logger, Operation.FETCH, repositoryUrl, null);
+
+        commands.clear();
+        commands.add("git");
+        commands.add("reset");
+        commands.add("--hard");
+        commands.add("FETCH_HEAD");
         execute(moduleDir, commands);
+
+        // reset leaves the previous HEAD in ORIG_HEAD
+        String revision = readRevisionFile(moduleDir, "FETCH_HEAD");
+        String previousRevision = readRevisionFile(moduleDir, "ORIG_HEAD");
+        if (clean && revision != null && !revision.equals(previousRevision)) {
+            commands.clear();
+            commands.add("git");
+            commands.add("clean");
+            commands.add("-fdx");
+            execute(moduleDir, commands);
+        }
+        return revision;
+    }
+
+    /**
+     * Reads the revision at the start of a file in .git, such as FETCH_HEAD
+     * or ORIG_HEAD. Returns null when it cannot be read.
+     */
+    private String readRevisionFile(FilePath moduleDir, String name) {
+        try {
+            FilePath file = new FilePath(moduleDir, ".git/" + name);
+            if (!file.exists()) {
+                return null;
+            }
+            String content = file.readToString();
+            if (content.length() < 40) {
+                return null;
+            }
+            return content.substring(0, 40);
+        } catch (Exception e) {
+            return null;
+        }
     }
 
-    public void checkoutBranchIfChange(FilePath moduleDir, String branchName) {
+    /**
+     * Checks the given branch out unless it already is.
+     *
+     * @return whether another branch was checked out
+     */
+    public boolean checkoutBranchIfChange(FilePath moduleDir, String repositoryUrl, String branchName) {
         if(!getBranchName(moduleDir).equals(branchName)) {
             if (isLocalBranch(moduleDir, branchName)) {
                 checkoutBranch(moduleDir, branchName);
             } else {
-                if (isRemoteBranch(moduleDir, branchName)) {
+                if (isRemoteBranch(moduleDir, repositoryUrl, branchName)) {
                     checkoutRemoteBranch(moduleDir, branchName);
                 } else {
                     checkoutNewBranch(moduleDir, branchName);
                 }
             }
+            return true;
         }
+        return false;
     }
 
     public void checkoutBranch(FilePath moduleDir, String branchName) {
@@ -110,6 +498,10 @@ public class GitHelper {
     }
 
     public String getBranchName(FilePath moduleDir) {
+        String branch = readRef(moduleDir, RefQuery.BRANCH, null);
+        if (branch != null) {
+            return branch;
+        }
         List<String> commands = new ArrayList<String>(5);
         commands.add("git");
         commands.add("symbolic-ref");
@@ -118,17 +510,20 @@ public class GitHelper {
         commands.add("HEAD");
 
         ByteArrayOutputStream output = new ByteArrayOutputStream();
-        execute(moduleDir, commands, output);
+        execute(moduleDir, commands, output, Operation.LOCAL, null, null);
 
         try {
             return output.toString("UTF-8").trim();
         } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            throw new IllegalStateException(e);
         }
-        return null;
     }
 
     public boolean isLocalBranch(FilePath moduleDir, String branchName) {
+        String revision = readRef(moduleDir, RefQuery.REF, "refs/heads/" + branchName);
+        if (revision != null) {
+            return !revision.equals(GitRefReader.MISSING);
+        }
         try {
             return new FilePath(moduleDir, ".git/refs/heads/" + branchName).exists();
         } catch (InterruptedException e) {
@@ -138,15 +533,19 @@ public class GitHelper {
         }
     }
 
-    public boolean isRemoteBranch(FilePath moduleDir, String branchName) {
+    public boolean isRemoteBranch(FilePath moduleDir, String repositoryUrl, String branchName) {
         List<String> commands = new ArrayList<String>(5);
         commands.add("git");
         commands.add("fetch");
-        execute(moduleDir, commands);
+        execute(moduleDir, commands, logger, Operation.FETCH, repositoryUrl, null);
 
         if(branchName.equals("master")) {
             branchName = "HEAD";
         }
+        String revision = readRef(moduleDir, RefQuery.REF, "refs/remotes/origin/" + branchName);
+        if (revision != null) {
+            return !revision.equals(GitRefReader.MISSING);
+        }
         try {
             return new FilePath(moduleDir, ".git/refs/remotes/origin/" + branchName).exists();
         } catch (InterruptedException e) {
@@ -157,38 +556,266 @@ public class GitHelper {
     }
 
     public String getRevision(FilePath moduleDir) {
+        final String revision = readRef(moduleDir, RefQuery.REVISION, null);
+        if (revision != null) {
+            return revision;
+        }
         final List<String> commands = new ArrayList<String>(2);
         commands.add("git");
         commands.add("rev-parse");
         commands.add("HEAD");
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
-        execute(moduleDir, commands, output);
+        execute(moduleDir, commands, output, Operation.LOCAL, null, null);
 
         try {
             return output.toString("UTF-8").trim();
         } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            throw new IllegalStateException(e);
         }
-        return null;
     }
 
-    private void execute(FilePath moduleDir, List<String> commands) {
-        execute(moduleDir, commands, logger);
+    /**
+     * Returns the paths of the files in the index of a repository, relative
+     * to it.
+     */
+    public List<String> listTrackedFiles(FilePath moduleDir) {
+        final List<String> commands = new ArrayList<String>(3);
+        commands.add("git");
+        commands.add("ls-files");
+        commands.add("-z");
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        execute(moduleDir, commands, output, Operation.LOCAL, null, null);
+
+        final List<String> files = new ArrayList<String>();
+        try {
+            for (String file : output.toString("UTF-8").split("\0")) {
+                if (!file.isEmpty()) {
+                    files.add(file);
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return files;
     }
 
-    private void execute(FilePath moduleDir, List<String> commands, OutputStream out) {
-        int resultCode;
+    /**
+     * Reads HEAD or a ref from the files of the repository, on its node.
+     * Returns null when the layout is not understood, in which case the
+     * caller asks the git CLI instead.
+     */
+    String readRef(FilePath moduleDir, RefQuery query, String ref) {
         try {
-            resultCode = launcher.launch().stdout(out).pwd(moduleDir).cmds(commands).envs(env).join();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("[repo] - git fail to execute [" + array2String(commands) + "]");
+            return moduleDir.act(new ReadRef(refReader, query, ref));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("[repo] - interrupted while reading refs of [\"" + moduleDir.getName() + "\"].");
+        } catch (IOException e) {
+            return null;
         }
-        if (resultCode != 0) {
-            throw new RuntimeException("[repo] - git fail to execute [" + array2String(commands) + "]");
+    }
+
+    void execute(FilePath moduleDir, List<String> commands) {
+        execute(moduleDir, commands, logger, Operation.LOCAL, null, null);
+    }
+
+    /**
+     * Runs a git command, killing it when it exceeds the timeout of its
+     * operation. Network commands wait for a slot in the concurrency limits
+     * of their origin host, and are retried with a jittered exponential
+     * backoff when they fail.
+     *
+     * @param pwd
+     *            The directory to run the command in
+     * @param repositoryUrl
+     *            The origin a network command talks to
+     * @param cleanOnRetry
+     *            A directory whose contents are deleted before retrying, to
+     *            get rid of a partial clone. May be null.
+     */
+    void execute(FilePath pwd, List<String> commands, OutputStream out, Operation operation,
+                 String repositoryUrl, FilePath cleanOnRetry) {
+        final String command = array2String(commands);
+        final int attempts = operation.isNetwork() ? options.getRetries() + 1 : 1;
+        for (int attempt = 1; ; attempt++) {
+            String failure;
+            // in quiet mode, the output only reaches the build log on failure
+            final ByteArrayOutputStream captured = options.isQuiet() && out == logger ? new ByteArrayOutputStream() : null;
+            final OutputStream target = captured != null ? captured : out == logger ? new LogCounter(out) : out;
+            try {
+                final int resultCode;
+                final long start;
+                final int timeout = timeoutOf(operation);
+                if (operation.isNetwork()) {
+                    final String host = OriginResolver.host(env.expand(repositoryUrl));
+                    final GitThrottle nodeThrottle = GitThrottle.forNode(options.getNodeName(), host);
+                    final long queued = System.nanoTime();
+                    nodeThrottle.acquire(options.getMaxConcurrentPerNode());
+                    try {
+                        controllerSlots.acquire(host);
+                        final long launched = System.nanoTime();
+                        Outcome outcome = Outcome.FAILED;
+                        try {
+                            start = launched;
+                            reportQueueWait(host, TimeUnit.NANOSECONDS.toMillis(start - queued));
+                            final OutputTail tail = new OutputTail(target);
+                            resultCode = launch(pwd, commands, tail, timeout, envFor(repositoryUrl));
+                            if (resultCode == 0) {
+                                outcome = Outcome.SUCCEEDED;
+                            } else if (timeout > 0 && System.nanoTime() - start >= TimeUnit.MINUTES.toNanos(timeout)
+                                    || tail.isTransportError()) {
+                                outcome = Outcome.CONGESTED;
+                            }
+                        } finally {
+                            controllerSlots.release(host, operation + " " + OriginResolver.canonical(env.expand(repositoryUrl)),
+                                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched), outcome);
+                        }
+                    } finally {
+                        nodeThrottle.release();
+                    }
+                } else {
+                    start = System.nanoTime();
+                    resultCode = launch(pwd, commands, target, timeout, env);
+                }
+                if (resultCode == 0) {
+                    if (captured != null) {
+                        metrics.recordLog(0, captured.size());
+                    }
+                    return;
+                }
+                printCaptured(command, captured);
+                if (timeout > 0 && System.nanoTime() - start >= TimeUnit.MINUTES.toNanos(timeout)) {
+                    logger.println("[repo] - git timed out after " + timeout + " minutes, killed [" + command + "]");
+                    metrics.recordTimeout(command);
+                    failure = "[repo] - git timed out executing [" + command + "]";
+                } else {
+                    failure = "[repo] - git fail to execute [" + command + "]";
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("[repo] - interrupted while executing [" + command + "]");
+            } catch (Exception e) {
+                printCaptured(command, captured);
+                e.printStackTrace(listener.error("[repo] - could not run [" + command + "]"));
+                failure = "[repo] - git fail to execute [" + command + "]";
+            }
+
+            if (attempt >= attempts) {
+                throw new RuntimeException(failure);
+            }
+            long delay = backoff(attempt);
+            logger.println(failure + ", retrying in " + (delay / 1000) + "s (" + attempt + "/" + options.getRetries() + ")");
+            metrics.recordRetry();
+            try {
+                Thread.sleep(delay);
+                if (cleanOnRetry != null && cleanOnRetry.exists()) {
+                    cleanOnRetry.deleteContents();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("[repo] - interrupted while executing [" + command + "]");
+            } catch (IOException e) {
+                throw new RuntimeException("[repo] - fail to clean [\"" + cleanOnRetry.getName() + "\"] before retrying.");
+            }
         }
     }
 
+    private int launch(FilePath pwd, List<String> commands, OutputStream out, int timeout, EnvVars envs)
+            throws IOException, InterruptedException {
+        final Proc proc = launcher.launch().quiet(options.isQuiet()).stdout(out).pwd(pwd).cmds(commands).envs(envs).start();
+        return timeout > 0 ? proc.joinWithTimeout(timeout, TimeUnit.MINUTES, listener) : proc.join();
+    }
+
+    /**
+     * Prints a failed command and its output captured in quiet mode.
+     */
+    private void printCaptured(String command, ByteArrayOutputStream captured) {
+        if (captured == null) {
+            return;
+        }
+        synchronized (logger) {
+            logger.println("$ " + command);
+            logger.write(captured.toByteArray(), 0, captured.size());
+        }
+        metrics.recordLog(captured.size(), 0);
+    }
+
+    /**
+     * Returns the environment for a network command against the given
+     * origin, remembering SSH destinations so {@link #close()} can shut
+     * their master connections down.
+     */
+    private EnvVars envFor(String repositoryUrl) {
+        final EnvVars sshEnv = options.getSshEnv();
+        if (sshEnv == null) {
+            return env;
+        }
+        final List<String> destination = sshDestination(env.expand(repositoryUrl));
+        if (destination == null) {
+            return env;
+        }
+        synchronized (sshDestinations) {
+            sshDestinations.put(destination.toString(), destination);
+        }
+        return sshEnv;
+    }
+
+    /**
+     * Returns the ssh arguments ("-p", port, "user@host") addressing the
+     * server of an SSH clone URL, or null for other URLs.
+     */
+    static List<String> sshDestination(String url) {
+        final int scheme = url.indexOf("://");
+        if (scheme < 0) {
+            // scp-like "user@host:path"
+            final int colon = url.indexOf(':');
+            final int slash = url.indexOf('/');
+            if (colon <= 0 || (slash >= 0 && slash < colon)) {
+                return null;
+            }
+            return Arrays.asList(url.substring(0, colon));
+        }
+        final String protocol = url.substring(0, scheme);
+        if (!protocol.equals("ssh") && !protocol.equals("git+ssh") && !protocol.equals("ssh+git")) {
+            return null;
+        }
+        final int slash = url.indexOf('/', scheme + 3);
+        final String authority = url.substring(scheme + 3, slash < 0 ? url.length() : slash);
+        final int port = authority.lastIndexOf(':');
+        if (port > authority.lastIndexOf(']') && port > authority.lastIndexOf('@')) {
+            return Arrays.asList("-p", authority.substring(port + 1), authority.substring(0, port));
+        }
+        return Arrays.asList(authority);
+    }
+
+    private void reportQueueWait(String host, long millis) {
+        metrics.recordQueueWait(millis);
+        if (millis >= 1000) {
+            logger.println("[repo] - waited " + (millis / 1000) + "s for a git slot on [" + host + "]");
+        }
+    }
+
+    private int timeoutOf(Operation operation) {
+        switch (operation) {
+            case CLONE:
+                return options.getCloneTimeout();
+            case FETCH:
+                return options.getFetchTimeout();
+            default:
+                return options.getLocalTimeout();
+        }
+    }
+
+    /**
+     * Returns a random delay between half and all of an exponentially
+     * growing, capped delay, so that agents hit by the same outage do not
+     * retry in lockstep.
+     */
+    private static long backoff(int attempt) {
+        long delay = Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY << Math.min(attempt - 1, 10));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
     private String array2String(List<String> commands) {
         StringBuilder temp = new StringBuilder();
         for (int i = 0; i < commands.size(); i++) {
@@ -197,4 +824,223 @@ public class GitHelper {
         }
         return temp.toString().trim();
     }
+
+    enum RefQuery {
+        BRANCH, REVISION, REF
+    }
+
+    private static class ReadRef extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        // only kept when the repository is on the node of the helper; a
+        // read sent to another node parses packed-refs afresh
+        private transient GitRefReader reader;
+        private final RefQuery query;
+        private final String ref;
+
+        ReadRef(GitRefReader reader, RefQuery query, String ref) {
+            this.reader = reader;
+            this.query = query;
+            this.ref = ref;
+        }
+
+        public String invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            if (reader == null) {
+                reader = new GitRefReader();
+            }
+            switch (query) {
+                case BRANCH:
+                    return reader.readBranch(dir);
+                case REVISION:
+                    return reader.readRevision(dir);
+                default:
+                    return reader.readRef(dir, ref);
+            }
+        }
+    }
+
+    /**
+     * Takes slots of the controller-wide limit of concurrent network
+     * commands per origin host, and of the adaptive limit of the node.
+     * Exported to the nodes running {@link UpdateModules}.
+     */
+    public interface ControllerSlots {
+
+        void acquire(String host) throws InterruptedException;
+
+        /**
+         * @param operation
+         *            The operation and origin of the command
+         * @param millis
+         *            The time the command ran
+         */
+        void release(String host, String operation, long millis, Outcome outcome);
+    }
+
+    /**
+     * How a network command went, as far as the load of the server and the
+     * network are concerned.
+     */
+    enum Outcome {
+        SUCCEEDED,
+        /**
+         * Timed out or lost the connection to the server.
+         */
+        CONGESTED,
+        /**
+         * Failed for another reason, like a missing branch or denied access,
+         * which says nothing about the load.
+         */
+        FAILED
+    }
+
+    private static class ControllerThrottle implements ControllerSlots {
+
+        private final String nodeName;
+        private final int limit;
+        private final int adaptiveMin;
+        private final int adaptiveMax;
+
+        /**
+         * @param adaptiveMax
+         *            The upper bound of the adaptive limit of the node, 0
+         *            for no adaptive limit
+         */
+        ControllerThrottle(String nodeName, int limit, int adaptiveMin, int adaptiveMax) {
+            this.nodeName = nodeName;
+            this.limit = limit;
+            this.adaptiveMin = adaptiveMin;
+            this.adaptiveMax = adaptiveMax;
+        }
+
+        public void acquire(String host) throws InterruptedException {
+            if (adaptiveMax > 0) {
+                GitThrottle.forAdaptive(nodeName, host).acquire(
+                        AdaptiveLimit.forNode(nodeName, host).get(adaptiveMin, adaptiveMax));
+            }
+            try {
+                GitThrottle.forController(host).acquire(limit);
+            } catch (InterruptedException e) {
+                if (adaptiveMax > 0) {
+                    GitThrottle.forAdaptive(nodeName, host).release();
+                }
+                throw e;
+            }
+        }
+
+        public void release(String host, String operation, long millis, Outcome outcome) {
+            GitThrottle.forController(host).release();
+            if (adaptiveMax > 0) {
+                GitThrottle.forAdaptive(nodeName, host).release();
+                if (outcome != Outcome.FAILED) {
+                    AdaptiveLimit.forNode(nodeName, host).record(operation, millis, outcome == Outcome.SUCCEEDED,
+                            adaptiveMin, adaptiveMax);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes git output on to the build log, counting it in the metrics.
+     */
+    private class LogCounter extends FilterOutputStream {
+
+        LogCounter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.recordLog(1, 0);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.recordLog(len, 0);
+        }
+    }
+
+    /**
+     * Passes the output of a network command through, keeping its end to
+     * tell a lost connection from other failures.
+     */
+    private static class OutputTail extends FilterOutputStream {
+
+        private static final int SIZE = 2048;
+
+        /**
+         * What git and its transports print when the connection times out,
+         * is refused or drops; authentication and missing refs are not
+         * listed.
+         */
+        private static final String[] TRANSPORT_ERRORS = {
+            "Connection timed out", "Operation timed out", "Connection reset", "Connection refused",
+            "Connection closed", "Could not resolve host", "Failed to connect", "early EOF",
+            "The remote end hung up unexpectedly", "RPC failed", "transfer closed", "Empty reply from server",
+            "ssh: connect to host"
+        };
+
+        private final byte[] tail = new byte[SIZE];
+        private long count;
+
+        OutputTail(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            tail[(int) (count++ % SIZE)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (int i = Math.max(off, off + len - SIZE); i < off + len; i++) {
+                tail[(int) (count++ % SIZE)] = b[i];
+            }
+        }
+
+        boolean isTransportError() throws UnsupportedEncodingException {
+            final int length = (int) Math.min(count, SIZE);
+            final byte[] ordered = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ordered[i] = tail[(int) ((count - length + i) % SIZE)];
+            }
+            final String text = new String(ordered, "ISO-8859-1");
+            for (String error : TRANSPORT_ERRORS) {
+                if (text.contains(error)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates a private directory for SSH control sockets on the node. It
+     * goes to the system temporary directory rather than the workspace
+     * because socket paths are limited to about 100 characters.
+     */
+    private static class CreateControlDir extends MasterToSlaveCallable<String, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        public String call() throws IOException {
+            File dir = File.createTempFile("repo-ssh", "");
+            if (!dir.delete() || !dir.mkdir()) {
+                throw new IOException("Could not create " + dir);
+            }
+            dir.setReadable(false, false);
+            dir.setWritable(false, false);
+            dir.setExecutable(false, false);
+            dir.setReadable(true, true);
+            dir.setWritable(true, true);
+            dir.setExecutable(true, true);
+            return dir.getAbsolutePath();
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.EnvVars;
+
+import java.io.Serializable;
+
+/**
+ * How a {@link GitHelper} runs git: the timeouts, retries and concurrency
+ * limits of its commands and the environment of the ones going over SSH.
+ * A helper sent to the node of the workspace carries the same instance, so
+ * an option added here reaches the node without further ado.
+ */
+final class GitOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int cloneTimeout = GitHelper.DEFAULT_CLONE_TIMEOUT;
+    private int fetchTimeout = GitHelper.DEFAULT_FETCH_TIMEOUT;
+    private int localTimeout = GitHelper.DEFAULT_LOCAL_TIMEOUT;
+    private int retries;
+    private boolean quiet;
+
+    private String nodeName = "";
+    private int maxConcurrentPerNode;
+    private int maxConcurrentPerController;
+
+    private EnvVars sshEnv;
+
+    int getCloneTimeout() {
+        return cloneTimeout;
+    }
+
+    int getFetchTimeout() {
+        return fetchTimeout;
+    }
+
+    int getLocalTimeout() {
+        return localTimeout;
+    }
+
+    void setTimeouts(int cloneTimeout, int fetchTimeout, int localTimeout) {
+        this.cloneTimeout = cloneTimeout;
+        this.fetchTimeout = fetchTimeout;
+        this.localTimeout = localTimeout;
+    }
+
+    int getRetries() {
+        return retries;
+    }
+
+    void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    boolean isQuiet() {
+        return quiet;
+    }
+
+    void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    String getNodeName() {
+        return nodeName;
+    }
+
+    int getMaxConcurrentPerNode() {
+        return maxConcurrentPerNode;
+    }
+
+    int getMaxConcurrentPerController() {
+        return maxConcurrentPerController;
+    }
+
+    void setConcurrencyLimits(String nodeName, int perNode, int perController) {
+        this.nodeName = nodeName;
+        this.maxConcurrentPerNode = perNode;
+        this.maxConcurrentPerController = perController;
+    }
+
+    /**
+     * Returns the environment of network commands to SSH origins, null
+     * when they do not share connections.
+     */
+    EnvVars getSshEnv() {
+        return sshEnv;
+    }
+
+    void setSshEnv(EnvVars sshEnv) {
+        this.sshEnv = sshEnv;
+    }
+}
@@ -0,0 +1,265 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads HEAD and refs straight from the files of a repository, instead of
+ * starting "git symbolic-ref" or "git rev-parse" for them. Handles regular
+ * clones and worktrees with loose and packed refs; every method returns null
+ * for anything else (reftable, unexpected contents) so the caller can fall
+ * back to the git CLI.
+ * <p>
+ * A reader lives for one checkout, see {@link GitHelper}, and keeps the
+ * packed-refs files it parsed. They are read again when their file key,
+ * size or modification time changes; git replaces packed-refs by renaming
+ * a new file over it, so every rewrite has a new file key. Where the file
+ * system has no file keys, packed-refs is read every time.
+ */
+final class GitRefReader {
+
+    /**
+     * Returned for a ref that does not exist, and as the branch of a
+     * detached HEAD.
+     */
+    static final String MISSING = "";
+
+    private static final String REF_PREFIX = "ref: ";
+    private static final String HEADS = "refs/heads/";
+    private static final int MAX_SYMBOLIC_DEPTH = 5;
+
+    /**
+     * The number of packed-refs files kept parsed.
+     */
+    private static final int MAX_PACKED_REFS = 256;
+
+    private final Map<File, PackedRefs> packedRefs = new LinkedHashMap<File, PackedRefs>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, PackedRefs> eldest) {
+            return size() > MAX_PACKED_REFS;
+        }
+    };
+
+    /**
+     * Returns the short name of the checked out branch, {@link #MISSING}
+     * when HEAD is detached.
+     */
+    String readBranch(final File dir) throws IOException {
+        final Layout layout = Layout.of(dir);
+        if (layout == null) {
+            return null;
+        }
+        final String head = firstLine(new File(layout.gitDir, "HEAD"));
+        if (head == null) {
+            return null;
+        }
+        if (head.startsWith(REF_PREFIX + HEADS)) {
+            return head.substring(REF_PREFIX.length() + HEADS.length());
+        }
+        return isRevision(head) ? MISSING : null;
+    }
+
+    /**
+     * Returns the revision HEAD points to.
+     */
+    String readRevision(final File dir) throws IOException {
+        final Layout layout = Layout.of(dir);
+        if (layout == null) {
+            return null;
+        }
+        final String head = firstLine(new File(layout.gitDir, "HEAD"));
+        if (head == null) {
+            return null;
+        }
+        if (head.startsWith(REF_PREFIX)) {
+            final String revision = resolve(layout, head.substring(REF_PREFIX.length()), 0);
+            // an unborn branch is left to the CLI
+            return MISSING.equals(revision) ? null : revision;
+        }
+        return isRevision(head) ? head : null;
+    }
+
+    /**
+     * Returns the revision of a full ref name such as "refs/heads/master",
+     * {@link #MISSING} when there is no such ref.
+     */
+    String readRef(final File dir, final String ref) throws IOException {
+        final Layout layout = Layout.of(dir);
+        if (layout == null) {
+            return null;
+        }
+        return resolve(layout, ref, 0);
+    }
+
+    /**
+     * Returns the git directory holding HEAD and the per-worktree files of a
+     * clone or worktree, null when the layout is not understood.
+     */
+    static File gitDir(final File dir) throws IOException {
+        final Layout layout = Layout.of(dir);
+        return layout == null ? null : layout.gitDir;
+    }
+
+    private String resolve(final Layout layout, final String ref, final int depth) throws IOException {
+        final File loose = new File(layout.commonDir, ref);
+        if (loose.isFile()) {
+            final String content = firstLine(loose);
+            if (content == null) {
+                return null;
+            }
+            if (isRevision(content)) {
+                return content;
+            }
+            if (content.startsWith(REF_PREFIX) && depth < MAX_SYMBOLIC_DEPTH) {
+                return resolve(layout, content.substring(REF_PREFIX.length()), depth + 1);
+            }
+            return null;
+        }
+        final String packed = packedRefs(layout.commonDir).get(ref);
+        return packed == null ? MISSING : packed;
+    }
+
+    private synchronized Map<String, String> packedRefs(final File commonDir) throws IOException {
+        final File file = new File(commonDir, "packed-refs");
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            packedRefs.remove(file);
+            return Collections.emptyMap();
+        }
+        final Object fileKey = attributes.fileKey();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final long length = attributes.size();
+        PackedRefs refs = packedRefs.get(file);
+        if (refs == null || fileKey == null || !fileKey.equals(refs.fileKey) || refs.lastModified != lastModified
+                || refs.length != length) {
+            refs = new PackedRefs(fileKey, lastModified, length, parsePackedRefs(file));
+            packedRefs.put(file, refs);
+        }
+        return refs.refs;
+    }
+
+    private static Map<String, String> parsePackedRefs(final File file) throws IOException {
+        final Map<String, String> refs = new HashMap<String, String>();
+        if (!file.isFile()) {
+            return refs;
+        }
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // skip the header and the peeled "^<revision>" lines of tags
+                if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '^') {
+                    continue;
+                }
+                final int space = line.indexOf(' ');
+                if (space > 0 && isRevision(line.substring(0, space))) {
+                    refs.put(line.substring(space + 1), line.substring(0, space));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return refs;
+    }
+
+    private static String firstLine(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            final String line = reader.readLine();
+            return line == null ? null : line.trim();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks for a full SHA-1 or SHA-256 object name.
+     */
+    static boolean isRevision(final String value) {
+        final int length = value.length();
+        if (length != 40 && length != 64) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Where HEAD and the shared refs of a clone or worktree live.
+     */
+    private static final class Layout {
+
+        private final File gitDir;
+        private final File commonDir;
+
+        private Layout(final File gitDir, final File commonDir) {
+            this.gitDir = gitDir;
+            this.commonDir = commonDir;
+        }
+
+        static Layout of(final File dir) throws IOException {
+            final File dotGit = new File(dir, ".git");
+            File gitDir;
+            if (dotGit.isDirectory()) {
+                gitDir = dotGit;
+            } else {
+                // a worktree: "gitdir: <store>/worktrees/<name>"
+                final String line = firstLine(dotGit);
+                if (line == null || !line.startsWith("gitdir:")) {
+                    return null;
+                }
+                gitDir = new File(line.substring("gitdir:".length()).trim());
+                if (!gitDir.isAbsolute()) {
+                    gitDir = new File(dir, gitDir.getPath());
+                }
+            }
+            File commonDir = gitDir;
+            final String common = firstLine(new File(gitDir, "commondir"));
+            if (common != null) {
+                commonDir = new File(common);
+                if (!commonDir.isAbsolute()) {
+                    commonDir = new File(gitDir, common);
+                }
+            }
+            if (new File(commonDir, "reftable").exists()) {
+                return null;
+            }
+            return new Layout(gitDir, commonDir);
+        }
+    }
+
+    private static final class PackedRefs {
+
+        private final Object fileKey;
+        private final long lastModified;
+        private final long length;
+        private final Map<String, String> refs;
+
+        PackedRefs(final Object fileKey, final long lastModified, final long length, final Map<String, String> refs) {
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.refs = refs;
+        }
+    }
+}
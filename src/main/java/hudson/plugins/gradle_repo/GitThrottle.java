@@ -0,0 +1,141 @@
+package hudson.plugins.gradle_repo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Limits the number of concurrent network git commands against one origin
+ * host. There is one throttle per (node, host), living in the JVM of the
+ * node, and one per host for the whole controller, which nodes reach through
+ * {@link GitHelper.ControllerSlots}. With adaptive concurrency, a third one
+ * per (node, host) on the controller applies the {@link AdaptiveLimit}.
+ * GitHelper takes a slot in each, always in that order. The adaptive
+ * throttles of a node are dropped with it, see
+ * {@link AdaptiveLimit.NodeListenerImpl}.
+ * <p>
+ * Waiters are served in arrival order, so a build with many modules cannot
+ * starve the builds queued behind it. The limit is passed on every acquire
+ * so configuration changes apply immediately.
+ */
+final class GitThrottle {
+
+    private static final Map<String, GitThrottle> throttles = new HashMap<String, GitThrottle>();
+
+    /**
+     * The adaptive throttles by node name, then by host.
+     */
+    private static final Map<String, Map<String, GitThrottle>> adaptive =
+            new HashMap<String, Map<String, GitThrottle>>();
+
+    private final LinkedList<Object> queue = new LinkedList<Object>();
+    private int running;
+
+    private GitThrottle() {
+    }
+
+    /**
+     * Returns the throttle for a host as seen from the given node.
+     */
+    static GitThrottle forNode(final String nodeName, final String host) {
+        return get("node " + nodeName + " " + host);
+    }
+
+    /**
+     * Returns the throttle applying the {@link AdaptiveLimit} of a node
+     * against a host, which lives on the controller.
+     */
+    static synchronized GitThrottle forAdaptive(final String nodeName, final String host) {
+        Map<String, GitThrottle> hosts = adaptive.get(nodeName);
+        if (hosts == null) {
+            hosts = new HashMap<String, GitThrottle>();
+            adaptive.put(nodeName, hosts);
+        }
+        GitThrottle throttle = hosts.get(host);
+        if (throttle == null) {
+            throttle = new GitThrottle();
+            hosts.put(host, throttle);
+        }
+        return throttle;
+    }
+
+    /**
+     * Drops the adaptive throttles of the nodes not in the given set, except
+     * the ones still in use.
+     */
+    static synchronized void retainAdaptive(final Set<String> nodeNames) {
+        final Iterator<Map.Entry<String, Map<String, GitThrottle>>> nodes = adaptive.entrySet().iterator();
+        while (nodes.hasNext()) {
+            final Map.Entry<String, Map<String, GitThrottle>> node = nodes.next();
+            if (nodeNames.contains(node.getKey())) {
+                continue;
+            }
+            for (Iterator<GitThrottle> throttle = node.getValue().values().iterator(); throttle.hasNext(); ) {
+                if (throttle.next().isIdle()) {
+                    throttle.remove();
+                }
+            }
+            if (node.getValue().isEmpty()) {
+                nodes.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the controller-wide throttle for a host.
+     */
+    static GitThrottle forController(final String host) {
+        return get("controller " + host);
+    }
+
+    private static synchronized GitThrottle get(final String key) {
+        GitThrottle throttle = throttles.get(key);
+        if (throttle == null) {
+            throttle = new GitThrottle();
+            throttles.put(key, throttle);
+        }
+        return throttle;
+    }
+
+    /**
+     * Waits for a slot.
+     *
+     * @param limit
+     *            The maximum number of concurrent commands, 0 or less for
+     *            no limit
+     */
+    synchronized void acquire(final int limit) throws InterruptedException {
+        if (limit <= 0) {
+            running++;
+            return;
+        }
+        final Object ticket = new Object();
+        queue.add(ticket);
+        try {
+            while (queue.getFirst() != ticket || running >= limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            queue.remove(ticket);
+            notifyAll();
+            throw e;
+        }
+        queue.removeFirst();
+        running++;
+        notifyAll();
+    }
+
+    private synchronized boolean isIdle() {
+        return running == 0 && queue.isEmpty();
+    }
+
+    /**
+     * Gives back a slot taken by {@link #acquire(int)}.
+     */
+    synchronized void release() {
+        running--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,174 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.NullStream;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs incremental maintenance in the repositories of a workspace, one
+ * after the other, in a single call on its node: "git repack -d" to pack
+ * loose objects, "git commit-graph write --reachable --split" and
+ * "git prune" of unreachable objects older than two weeks. Worktrees are
+ * maintained through their shared object store, once per store and only
+ * when no checkout holds it.
+ */
+final class MaintainModules extends MasterToSlaveFileCallable<List<MaintenanceResult>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Tells a long running task on a node to end early, like maintenance
+     * when a checkout waits for the workspace. Exported to the nodes running
+     * {@link MaintainModules}.
+     */
+    public interface StopSignal {
+
+        boolean isStopRequested();
+    }
+
+    private final GitHelper git;
+    private final List<ModuleState> modules;
+    private final StopSignal stop;
+
+    private MaintainModules(GitHelper git, List<ModuleState> modules, StopSignal stop) {
+        this.git = git;
+        this.modules = modules;
+        this.stop = stop;
+    }
+
+    /**
+     * Maintains the given repositories of a workspace.
+     *
+     * @param stop
+     *            Asked before each repository, maintenance ends early when
+     *            it returns true
+     * @return one result per maintained repository
+     */
+    static List<MaintenanceResult> maintain(GitHelper git, FilePath workspace, List<ModuleState> modules,
+                                            StopSignal stop) throws IOException, InterruptedException {
+        if (git.isDecorated()) {
+            return new MaintainModules(git.copy(null), new ArrayList<ModuleState>(modules), stop).run(workspace);
+        }
+        VirtualChannel channel = workspace.getChannel();
+        return workspace.act(new MaintainModules(git.copy(channel), new ArrayList<ModuleState>(modules),
+                channel.export(StopSignal.class, stop)));
+    }
+
+    public List<MaintenanceResult> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        return run(new FilePath(workspace));
+    }
+
+    private List<MaintenanceResult> run(final FilePath root) throws IOException, InterruptedException {
+        final Set<String> maintainedStores = new HashSet<String>();
+        final List<MaintenanceResult> results = new ArrayList<MaintenanceResult>();
+        for (ModuleState module : modules) {
+            if (stop.isStopRequested()) {
+                git.getLogger().println("[repo] - stop maintaining [" + root.getRemote() + "], a checkout is waiting.");
+                break;
+            }
+            final FilePath moduleDir = "./".equals(module.getPath()) ? root : new FilePath(root, module.getPath());
+            final MaintenanceResult result = maintainModule(moduleDir, module, maintainedStores);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private MaintenanceResult maintainModule(FilePath moduleDir, ModuleState module, Set<String> maintainedStores) {
+        if (!git.isGit(moduleDir)) {
+            return null;
+        }
+        if (!Worktrees.isWorktree(moduleDir)) {
+            return maintainRepository(moduleDir, module.getPath(), module.getOrigin());
+        }
+        final FilePath store = Worktrees.getObjectStore(moduleDir);
+        if (!maintainedStores.add(store.getRemote())) {
+            return null;
+        }
+        final ObjectStore lock = ObjectStore.forNode(git.getOptions().getNodeName(), store.getRemote());
+        if (!lock.tryLock()) {
+            git.getLogger().println("[repo] - skip [" + store.getRemote() + "], it is in use.");
+            return null;
+        }
+        try {
+            return maintainRepository(store, store.getRemote(), module.getOrigin());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private MaintenanceResult maintainRepository(FilePath dir, String name, String repositoryUrl) {
+        final long start = System.currentTimeMillis();
+        final long logBefore = measureLog(dir);
+        final long fetchBefore = measureFetch(dir, repositoryUrl);
+
+        List<String> commands = new ArrayList<String>(6);
+        commands.add("git");
+        commands.add("repack");
+        commands.add("-d");
+        git.execute(dir, commands);
+
+        commands.clear();
+        commands.add("git");
+        commands.add("commit-graph");
+        commands.add("write");
+        commands.add("--reachable");
+        commands.add("--split");
+        git.execute(dir, commands);
+
+        commands.clear();
+        commands.add("git");
+        commands.add("prune");
+        commands.add("--expire=2.weeks.ago");
+        git.execute(dir, commands);
+
+        return new MaintenanceResult(name, System.currentTimeMillis() - start, logBefore, measureLog(dir),
+                fetchBefore, measureFetch(dir, repositoryUrl));
+    }
+
+    /**
+     * Times a "git log --raw" over recent history, like the one of
+     * {@link ChangeLog}.
+     */
+    private long measureLog(FilePath dir) {
+        List<String> commands = new ArrayList<String>(5);
+        commands.add("git");
+        commands.add("log");
+        commands.add("--raw");
+        commands.add("-n");
+        commands.add("500");
+        return measure(dir, commands, GitHelper.Operation.LOCAL, null);
+    }
+
+    /**
+     * Times a dry-run fetch, which negotiates with the origin without
+     * changing anything.
+     */
+    private long measureFetch(FilePath dir, String repositoryUrl) {
+        List<String> commands = new ArrayList<String>(4);
+        commands.add("git");
+        commands.add("fetch");
+        commands.add("--dry-run");
+        commands.add("origin");
+        return measure(dir, commands, GitHelper.Operation.FETCH, repositoryUrl);
+    }
+
+    private long measure(FilePath dir, List<String> commands, GitHelper.Operation operation, String repositoryUrl) {
+        final long start = System.currentTimeMillis();
+        try {
+            git.execute(dir, commands, new NullStream(), operation, repositoryUrl, null);
+        } catch (RuntimeException e) {
+            return MaintenanceResult.UNKNOWN;
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,69 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of maintaining one repository: how long it took and how long
+ * a "git log" and a dry-run fetch took before and after.
+ */
+public final class MaintenanceResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Reported for a timing that could not be measured, such as a fetch
+     * from an unreachable origin.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final String path;
+    private final long millis;
+    private final long logMillisBefore;
+    private final long logMillisAfter;
+    private final long fetchMillisBefore;
+    private final long fetchMillisAfter;
+
+    MaintenanceResult(final String path, final long millis, final long logMillisBefore, final long logMillisAfter,
+                      final long fetchMillisBefore, final long fetchMillisAfter) {
+        this.path = path;
+        this.millis = millis;
+        this.logMillisBefore = logMillisBefore;
+        this.logMillisAfter = logMillisAfter;
+        this.fetchMillisBefore = fetchMillisBefore;
+        this.fetchMillisAfter = fetchMillisAfter;
+    }
+
+    /**
+     * Returns the path of the repository, relative to the workspace, or the
+     * directory of the shared object store it was attached to.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public long getLogMillisBefore() {
+        return logMillisBefore;
+    }
+
+    public long getLogMillisAfter() {
+        return logMillisAfter;
+    }
+
+    public long getFetchMillisBefore() {
+        return fetchMillisBefore;
+    }
+
+    public long getFetchMillisAfter() {
+        return fetchMillisAfter;
+    }
+
+    @Override
+    public String toString() {
+        return path + ": " + millis + "ms, git log " + logMillisBefore + "ms -> " + logMillisAfter
+                + "ms, git fetch " + fetchMillisBefore + "ms -> " + fetchMillisAfter + "ms";
+    }
+}
@@ -0,0 +1,173 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * The recent durations of the clone, the fetch and the change log of every
+ * module of a job, kept in the job directory. Used to start the longest
+ * updates first when modules are updated in parallel, so the checkout does
+ * not end waiting on a large module started last, and to predict how long a
+ * checkout takes.
+ * <p>
+ * Every duration is a moving average, weighing the latest build as much as
+ * the two before it, so a single slow build does not reorder the modules.
+ */
+final class ModuleDurations implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.ModuleDurations");
+
+    /**
+     * The name of the file in the job directory.
+     */
+    static final String FILE = "gradle-repo-durations.xml";
+
+    /**
+     * A duration never measured.
+     */
+    static final long UNKNOWN = -1;
+
+    private final Map<String, Durations> modules = new HashMap<String, Durations>();
+
+    /**
+     * Reads the durations of a job, empty when it has none yet or they
+     * cannot be read.
+     */
+    static ModuleDurations load(final Job<?, ?> job) {
+        final XmlFile file = new XmlFile(new File(job.getRootDir(), FILE));
+        if (file.exists()) {
+            try {
+                final Object durations = file.read();
+                if (durations instanceof ModuleDurations) {
+                    return (ModuleDurations) durations;
+                }
+            } catch (IOException e) {
+                debug.warning("Could not read " + file.getFile() + ": " + e);
+            }
+        }
+        return new ModuleDurations();
+    }
+
+    synchronized void save(final Job<?, ?> job) throws IOException {
+        new XmlFile(new File(job.getRootDir(), FILE)).write(this);
+    }
+
+    /**
+     * Records the durations of updated repositories. Pinned repositories
+     * already at their revision and resumed ones did not run git and are
+     * skipped.
+     */
+    synchronized void record(final List<UpdateResult> results) {
+        for (UpdateResult result : results) {
+            final Durations durations = get(result.getPath());
+            switch (result.getAction()) {
+                case CLONED:
+                case WORKTREE_ADDED:
+                    durations.clone = average(durations.clone, result.getMillis());
+                    break;
+                case PINNED:
+                    if (result.getPreviousRevision() == null) {
+                        durations.clone = average(durations.clone, result.getMillis());
+                    } else if (!result.getPreviousRevision().equals(result.getRevision())) {
+                        durations.fetch = average(durations.fetch, result.getMillis());
+                    }
+                    break;
+                case RESUMED:
+                    break;
+                default:
+                    durations.fetch = average(durations.fetch, result.getMillis());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records the time "git log" took for a module.
+     */
+    synchronized void recordChangeLog(final String path, final long millis) {
+        final Durations durations = get(path);
+        durations.changeLog = average(durations.changeLog, millis);
+    }
+
+    /**
+     * Returns the expected time of updating a module, {@link #UNKNOWN} when
+     * it was never measured.
+     *
+     * @param cloning
+     *            Whether the module has to be cloned
+     */
+    synchronized long predict(final String path, final boolean cloning) {
+        final Durations durations = modules.get(path);
+        if (durations == null) {
+            return UNKNOWN;
+        }
+        return cloning ? durations.clone : durations.fetch;
+    }
+
+    /**
+     * Returns the expected time of the change log of a module,
+     * {@link #UNKNOWN} when it was never measured.
+     */
+    synchronized long predictChangeLog(final String path) {
+        final Durations durations = modules.get(path);
+        return durations == null ? UNKNOWN : durations.changeLog;
+    }
+
+    /**
+     * Returns how long running tasks of the given durations takes on a
+     * number of threads, each thread taking the longest task left when it
+     * becomes free.
+     */
+    static long makespan(final long[] durations, final int threads) {
+        final long[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        final long[] busy = new long[Math.max(1, threads)];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            int free = 0;
+            for (int t = 1; t < busy.length; t++) {
+                if (busy[t] < busy[free]) {
+                    free = t;
+                }
+            }
+            busy[free] += sorted[i];
+        }
+        long max = 0;
+        for (long b : busy) {
+            max = Math.max(max, b);
+        }
+        return max;
+    }
+
+    private Durations get(final String path) {
+        Durations durations = modules.get(path);
+        if (durations == null) {
+            durations = new Durations();
+            modules.put(path, durations);
+        }
+        return durations;
+    }
+
+    private static long average(final long previous, final long sample) {
+        return previous == UNKNOWN ? sample : (previous * 2 + sample) / 3;
+    }
+
+    private static final class Durations implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long clone = UNKNOWN;
+        private long fetch = UNKNOWN;
+        private long changeLog = UNKNOWN;
+    }
+}
@@ -1,7 +1,10 @@
 package hudson.plugins.gradle_repo;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -17,6 +20,11 @@ public final class ModuleState implements Serializable {
     private final String origin;
     private final String branch;
     private final String revision;
+    /**
+     * null rather than empty, so that the build records of modules without
+     * sparse checkout stay the same.
+     */
+    private final List<String> sparsePaths;
 
     private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.ModuleState");
 
@@ -34,10 +42,22 @@ public final class ModuleState implements Serializable {
      *            The SHA-1 revision of the project
      */
     static synchronized ModuleState constructCachedInstance(final String path, final String origin, final String branch, final String revision) {
-        ModuleState moduleState = projectStateCache.get(calculateHashCode(path, origin, branch, revision));
+        return constructCachedInstance(path, origin, branch, revision, Collections.<String>emptyList());
+    }
+
+    /**
+     * Create an object representing the state of a project checked out
+     * sparsely.
+     *
+     * @param sparsePaths
+     *            The directories to check out, empty for the whole tree
+     */
+    static synchronized ModuleState constructCachedInstance(final String path, final String origin, final String branch, final String revision,
+                                                         final List<String> sparsePaths) {
+        ModuleState moduleState = projectStateCache.get(calculateHashCode(path, origin, branch, revision, sparsePaths));
 
         if (moduleState == null) {
-            moduleState = new ModuleState(path, origin, branch, revision);
+            moduleState = new ModuleState(path, origin, branch, revision, sparsePaths);
             projectStateCache.put(moduleState.hashCode(), moduleState);
         }
 
@@ -48,11 +68,12 @@ public final class ModuleState implements Serializable {
      * Private constructor called by named constructor
      * constructCachedInstance().
      */
-    private ModuleState(final String path, String origin, String branch, final String revision) {
+    private ModuleState(final String path, String origin, String branch, final String revision, final List<String> sparsePaths) {
         this.path = path;
         this.origin = origin;
         this.branch = branch;
         this.revision = revision;
+        this.sparsePaths = sparsePaths.isEmpty() ? null : Collections.unmodifiableList(new ArrayList<String>(sparsePaths));
 
         debug.log(Level.FINE, "path: " + path + " revision: " + revision);
     }
@@ -64,7 +85,7 @@ public final class ModuleState implements Serializable {
     private synchronized Object readResolve() {
         ModuleState moduleState
                 = projectStateCache.get(
-                calculateHashCode(path, origin, branch, revision));
+                calculateHashCode(path, origin, branch, revision, getSparsePaths()));
 
         if (moduleState == null) {
             projectStateCache.put(this.hashCode(), this);
@@ -97,6 +118,14 @@ public final class ModuleState implements Serializable {
         return revision;
     }
 
+    /**
+     * Gets the directories checked out in cone-mode sparse checkout, empty
+     * when the whole tree is checked out.
+     */
+    public List<String> getSparsePaths() {
+        return sparsePaths == null ? Collections.<String>emptyList() : sparsePaths;
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -112,12 +141,13 @@ public final class ModuleState implements Serializable {
                 && (branch == null ? other.branch == null : branch
                 .equals(other.branch))
                 && (revision == null ? other.revision == null : revision
-                .equals(other.revision));
+                .equals(other.revision))
+                && getSparsePaths().equals(other.getSparsePaths());
     }
 
     @Override
     public int hashCode() {
-        return calculateHashCode(path, origin, branch, revision);
+        return calculateHashCode(path, origin, branch, revision, getSparsePaths());
     }
 
     /**
@@ -129,10 +159,12 @@ public final class ModuleState implements Serializable {
      * @param revision
      *            The SHA-1 revision of the project
      */
-    private static int calculateHashCode(final String path, final String origin, final String branch, final String revision) {
+    private static int calculateHashCode(final String path, final String origin, final String branch, final String revision,
+                                         final List<String> sparsePaths) {
         return 23 + (path == null ? 37 : path.hashCode())
                 + (origin == null ? 89 : origin.hashCode())
                 + (branch == null ? 169 : branch.hashCode())
-                + (revision == null ? 389 : revision.hashCode());
+                + (revision == null ? 389 : revision.hashCode())
+                + (sparsePaths.isEmpty() ? 0 : 31 * sparsePaths.hashCode());
     }
 }
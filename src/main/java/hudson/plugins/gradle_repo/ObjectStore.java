@@ -0,0 +1,54 @@
+package hudson.plugins.gradle_repo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The lock of a shared object store: a bare mirror of one origin on a node,
+ * which the workspaces of all executors of that node attach to as git
+ * worktrees. Cloning, fetching and adding or pruning worktrees all change
+ * the store, so they are done while holding its lock.
+ * <p>
+ * Repositories are cloned and updated by a call running on the node of the
+ * workspace, so the locks live in the JVM of that node.
+ */
+final class ObjectStore {
+
+    /**
+     * The directory, under the root of a node, holding its object stores.
+     */
+    static final String STORES_DIR = "gradle-repo-stores";
+
+    private static final Map<String, ObjectStore> stores = new HashMap<String, ObjectStore>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private ObjectStore() {
+    }
+
+    /**
+     * Returns the store at the given directory of a node.
+     */
+    static synchronized ObjectStore forNode(final String nodeName, final String storeDir) {
+        final String key = nodeName + " " + storeDir;
+        ObjectStore store = stores.get(key);
+        if (store == null) {
+            store = new ObjectStore();
+            stores.put(key, store);
+        }
+        return store;
+    }
+
+    void lock() throws InterruptedException {
+        lock.lockInterruptibly();
+    }
+
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+}
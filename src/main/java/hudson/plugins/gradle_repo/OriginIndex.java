@@ -0,0 +1,297 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Controller-side reverse index from repository origin and branch to the
+ * Gradle Repo jobs whose manifests reference them, used by
+ * {@link RepoPushNotification} to find the jobs to trigger without walking
+ * every job.
+ * <p>
+ * A job is indexed by the project and modules recorded in the state of its
+ * latest build, or by its configured repository until it has one. Origins
+ * are compared in their {@link OriginResolver#canonical} form. The index is
+ * built in the background once jobs are loaded, so notifications never walk
+ * the build history, and then kept up to date as builds complete and jobs
+ * are created, reconfigured, renamed or deleted. Notifications arriving
+ * before it is built find fewer jobs.
+ */
+public final class OriginIndex {
+
+    private static final OriginIndex INSTANCE = new OriginIndex();
+
+    /**
+     * Job full names by canonical origin, then by branch.
+     */
+    private final Map<String, Map<String, Set<String>>> jobs = new HashMap<String, Map<String, Set<String>>>();
+
+    /**
+     * The (origin, branch) pairs each job is indexed under, to remove them.
+     */
+    private final Map<String, Set<Key>> keys = new HashMap<String, Set<Key>>();
+
+    /**
+     * The jobs indexed by the listeners while the index is being built,
+     * which the initial load must not overwrite with older states; null
+     * when not loading.
+     */
+    private Set<String> touched;
+
+    private OriginIndex() {
+    }
+
+    static OriginIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the full names of the jobs referencing a repository.
+     *
+     * @param origin
+     *            The clone URL of the repository, in any form
+     * @param branch
+     *            The branch, null for any branch
+     */
+    synchronized Set<String> lookup(final String origin, final String branch) {
+        final Map<String, Set<String>> branches = jobs.get(OriginResolver.canonical(origin));
+        if (branches == null) {
+            return Collections.emptySet();
+        }
+        if (branch != null) {
+            final Set<String> names = branches.get(branch);
+            return names == null ? Collections.<String>emptySet() : new HashSet<String>(names);
+        }
+        final Set<String> names = new HashSet<String>();
+        for (Set<String> branchJobs : branches.values()) {
+            names.addAll(branchJobs);
+        }
+        return names;
+    }
+
+    /**
+     * Builds the index in the background once all jobs are loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void start() {
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                get().load();
+            }
+        });
+    }
+
+    /**
+     * Indexes all jobs, as the system user so jobs hidden from anonymous
+     * notifications are found. The build history is read outside the lock,
+     * so notifications and listeners are not held up by it.
+     */
+    void load() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        synchronized (this) {
+            touched = new HashSet<String>();
+        }
+        final SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+        try {
+            for (Job<?, ?> job : jenkins.getAllItems(Job.class)) {
+                final ProjectState state = RepoMaintenance.getLastState(job);
+                synchronized (this) {
+                    if (!touched.contains(job.getFullName())) {
+                        index(job, state);
+                    }
+                }
+            }
+        } finally {
+            SecurityContextHolder.setContext(context);
+            synchronized (this) {
+                touched = null;
+            }
+        }
+    }
+
+    /**
+     * Indexes a job under the given state, replacing what it was indexed
+     * under before. Jobs not using Gradle Repo are removed.
+     *
+     * @param state
+     *            The state of its latest build, null if there is none
+     */
+    private void index(final Job<?, ?> job, final ProjectState state) {
+        remove(job.getFullName());
+        if (touched != null) {
+            touched.add(job.getFullName());
+        }
+        if (!(job instanceof AbstractProject) || !(((AbstractProject<?, ?>) job).getScm() instanceof RepoScm)) {
+            return;
+        }
+        final Set<Key> jobKeys = new HashSet<Key>();
+        if (state != null) {
+            if (state.project != null) {
+                jobKeys.add(new Key(state.project.getOrigin(), state.project.getBranch()));
+            }
+            for (ModuleState module : state.modules.values()) {
+                jobKeys.add(new Key(module.getOrigin(), module.getBranch()));
+            }
+        }
+        final RepoScm scm = (RepoScm) ((AbstractProject<?, ?>) job).getScm();
+        final String branch = Util.fixNull(scm.getBranch());
+        if (scm.getRepositoryUrl() != null && branch.indexOf('$') < 0) {
+            // expanded at build time when it has variables, the state has it
+            jobKeys.add(new Key(scm.getRepositoryUrl(), branch.isEmpty() ? "master" : branch));
+        }
+
+        for (Key key : jobKeys) {
+            Map<String, Set<String>> branches = jobs.get(key.origin);
+            if (branches == null) {
+                branches = new HashMap<String, Set<String>>();
+                jobs.put(key.origin, branches);
+            }
+            Set<String> names = branches.get(key.branch);
+            if (names == null) {
+                names = new HashSet<String>();
+                branches.put(key.branch, names);
+            }
+            names.add(job.getFullName());
+        }
+        keys.put(job.getFullName(), jobKeys);
+    }
+
+    private void remove(final String fullName) {
+        if (touched != null) {
+            touched.add(fullName);
+        }
+        final Set<Key> jobKeys = keys.remove(fullName);
+        if (jobKeys == null) {
+            return;
+        }
+        for (Key key : jobKeys) {
+            final Map<String, Set<String>> branches = jobs.get(key.origin);
+            final Set<String> names = branches.get(key.branch);
+            names.remove(fullName);
+            if (names.isEmpty()) {
+                branches.remove(key.branch);
+                if (branches.isEmpty()) {
+                    jobs.remove(key.origin);
+                }
+            }
+        }
+    }
+
+    synchronized void onCompleted(final Run<?, ?> run) {
+        final ProjectState state = run.getAction(ProjectState.class);
+        if (state != null) {
+            index(run.getParent(), state);
+        }
+    }
+
+    void onUpdated(final Job<?, ?> job) {
+        final ProjectState state = RepoMaintenance.getLastState(job);
+        synchronized (this) {
+            index(job, state);
+        }
+    }
+
+    synchronized void onDeleted(final String fullName) {
+        remove(fullName);
+    }
+
+    /**
+     * A (canonical origin, branch) pair.
+     */
+    private static final class Key {
+
+        private final String origin;
+        private final String branch;
+
+        Key(final String origin, final String branch) {
+            this.origin = OriginResolver.canonical(origin);
+            this.branch = Util.fixNull(branch);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return origin.equals(other.origin) && branch.equals(other.branch);
+        }
+
+        @Override
+        public int hashCode() {
+            return origin.hashCode() * 31 + branch.hashCode();
+        }
+    }
+
+    /**
+     * Re-indexes a job when one of its builds completes.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(final Run<?, ?> run, final TaskListener listener) {
+            get().onCompleted(run);
+        }
+    }
+
+    /**
+     * Re-indexes jobs when they are created, reconfigured or moved, and
+     * drops deleted ones.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(final Item item) {
+            onUpdated(item);
+        }
+
+        @Override
+        public void onCopied(final Item src, final Item item) {
+            onUpdated(item);
+        }
+
+        @Override
+        public void onUpdated(final Item item) {
+            if (item instanceof Job) {
+                get().onUpdated((Job<?, ?>) item);
+            }
+        }
+
+        @Override
+        public void onDeleted(final Item item) {
+            get().onDeleted(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(final Item item, final String oldFullName, final String newFullName) {
+            get().onDeleted(oldFullName);
+            onUpdated(item);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package hudson.plugins.gradle_repo;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the 'origin' attributes of a repo.xml to clone URLs.
+ * <p>
+ * Origins are either absolute ("git@host:group/name", "https://host/group/name")
+ * or relative to the fetch URL of the '&lt;default /&gt;' element. The path part
+ * is normalized with Unix separators and ".git" is appended when missing.
+ * <p>
+ * Manifests are parsed at least twice per checkout and usually list the same
+ * origins build after build, so results are memoized per (base, origin)
+ * pair. Paths that are already normalized skip {@link PathUtils#normalize}
+ * altogether, and an absolute origin that is already in its final form is
+ * returned as is.
+ */
+public final class OriginResolver {
+
+    private static final String GIT_SUFFIX = ".git";
+
+    /**
+     * Upper bound for each memo table. The tables are simply dropped when
+     * exceeded; a manifest never comes close to it.
+     */
+    private static final int MAX_CACHED = 4096;
+
+    private static final String NO_BASE = "";
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, String>> resolved
+            = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+
+    private OriginResolver() {
+    }
+
+    /**
+     * Resolves an absolute origin such as "git@host:group/name" or
+     * "https://host/group/name".
+     */
+    public static String resolve(final String origin) {
+        return resolve(NO_BASE, origin);
+    }
+
+    /**
+     * Resolves an origin against the fetch URL of the '&lt;default /&gt;'
+     * element. An empty base means the origin is absolute.
+     *
+     * @param base
+     *            The fetch URL, for example "git@host:group"
+     * @param origin
+     *            The origin attribute, for example "../other/name"
+     */
+    public static String resolve(final String base, final String origin) {
+        ConcurrentMap<String, String> origins = resolved.get(base);
+        if (origins == null) {
+            if (resolved.size() >= MAX_CACHED) {
+                resolved.clear();
+            }
+            origins = new ConcurrentHashMap<String, String>();
+            final ConcurrentMap<String, String> existing = resolved.putIfAbsent(base, origins);
+            if (existing != null) {
+                origins = existing;
+            }
+        }
+
+        String url = origins.get(origin);
+        if (url == null) {
+            url = base.isEmpty() ? resolveUrl(origin) : resolveUrl(join(base, origin));
+            if (origins.size() >= MAX_CACHED) {
+                origins.clear();
+            }
+            origins.put(origin, url);
+        }
+        return url;
+    }
+
+    /**
+     * Returns the URL of the directory containing the given repository, used
+     * as the default fetch URL when a manifest has no '&lt;default /&gt;'.
+     */
+    public static String parent(final String url) {
+        final int pathStart = pathStart(url);
+        final int slash = url.lastIndexOf('/');
+        if (slash < pathStart) {
+            return url.substring(0, pathStart);
+        }
+        return url.substring(0, slash);
+    }
+
+    /**
+     * Returns the lower-cased host of a clone URL, or an empty string for
+     * local paths and file:// URLs.
+     */
+    public static String host(final String url) {
+        final int scheme = url.indexOf("://");
+        String authority;
+        if (scheme < 0) {
+            final int colon = url.indexOf(':');
+            final int slash = url.indexOf('/');
+            if (colon < 0 || (slash >= 0 && slash < colon)) {
+                // a local path
+                return "";
+            }
+            authority = url.substring(0, colon);
+        } else {
+            final int slash = url.indexOf('/', scheme + 3);
+            authority = url.substring(scheme + 3, slash < 0 ? url.length() : slash);
+            final int port = authority.lastIndexOf(':');
+            if (port > authority.lastIndexOf(']')) {
+                authority = authority.substring(0, port);
+            }
+        }
+        final int at = authority.lastIndexOf('@');
+        return authority.substring(at + 1).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns a form of a clone URL that is the same for every way of
+     * writing it: "git@host:group/name.git", "ssh://git@host:22/group/name"
+     * and "https://host/group/name/" all become "host/group/name". Used to
+     * match the URLs of push notifications against manifest origins.
+     * <p>
+     * A URL whose path climbs above its root, such as "git@host:../name",
+     * has no canonical form and is returned trimmed but otherwise unchanged;
+     * see {@link #isCanonical(String)}.
+     */
+    public static String canonical(final String url) {
+        final String trimmed = url.trim();
+        String path = canonicalPath(trimmed);
+        if (path == null) {
+            return trimmed;
+        }
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        path = path.substring(0, end);
+        if (path.endsWith(GIT_SUFFIX)) {
+            path = path.substring(0, path.length() - GIT_SUFFIX.length());
+        }
+        final String host = host(trimmed);
+        return host.isEmpty() ? path : host + "/" + path;
+    }
+
+    /**
+     * Checks whether a URL has a canonical form, that is whether its path
+     * does not climb above its root.
+     */
+    public static boolean isCanonical(final String url) {
+        return canonicalPath(url.trim()) != null;
+    }
+
+    /**
+     * Returns the normalized path of a trimmed URL without its leading
+     * slashes, null when it climbs above its root.
+     */
+    private static String canonicalPath(final String trimmed) {
+        final String path = trimmed.substring(pathStart(trimmed));
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        // without its leading slashes, so "//group" is not read as a UNC name
+        return normalize(path.substring(start));
+    }
+
+    /**
+     * Joins a base and a relative origin as RepoHelper always did, with
+     * "/./" between them, so "git@host:" and "app" still give the
+     * root-relative "git@host:/app". Only a base ending in '/' differs: it
+     * used to give "//./app", which the normalization kept as is, and now
+     * gives "/app".
+     */
+    private static String join(final String base, final String origin) {
+        if (base.charAt(base.length() - 1) == '/') {
+            return base + "./" + origin;
+        }
+        return base + "/./" + origin;
+    }
+
+    private static String resolveUrl(final String url) {
+        final int pathStart = pathStart(url);
+        final String path = url.substring(pathStart);
+        final String normalized = normalize(path);
+
+        if (normalized == path) {
+            // nothing to normalize, avoid rebuilding the URL
+            return url.endsWith(GIT_SUFFIX) ? url : url + GIT_SUFFIX;
+        }
+        final String result = url.substring(0, pathStart) + normalized;
+        return result.endsWith(GIT_SUFFIX) ? result : result + GIT_SUFFIX;
+    }
+
+    /**
+     * Returns the index at which the path of the URL starts: after the ':' of
+     * an scp-like "user@host:path", or at the first '/' following the
+     * authority of a "scheme://authority/path" URL.
+     */
+    static int pathStart(final String url) {
+        final int scheme = url.indexOf("://");
+        if (scheme < 0) {
+            return url.indexOf(':') + 1;
+        }
+        final int slash = url.indexOf('/', scheme + 3);
+        return slash < 0 ? url.length() : slash;
+    }
+
+    /**
+     * Normalizes a Unix path. Returns the same instance when the path is
+     * already normalized.
+     */
+    static String normalize(final String path) {
+        if (isNormalized(path)) {
+            return path;
+        }
+        return PathUtils.normalize(path, true);
+    }
+
+    /**
+     * Checks without allocating whether {@link PathUtils#normalize} would
+     * return the path unchanged: no Windows separators or prefixes, no "~"
+     * prefix, no empty, "." or ".." segments.
+     */
+    static boolean isNormalized(final String path) {
+        final int length = path.length();
+        if (length == 0) {
+            return true;
+        }
+        final char first = path.charAt(0);
+        if (first == '~' || first == ':' || (length > 1 && path.charAt(1) == ':')) {
+            return false;
+        }
+        int segmentStart = 0;
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? path.charAt(i) : '/';
+            if (c == '\\' || c == 0) {
+                return false;
+            }
+            if (c != '/') {
+                continue;
+            }
+            final int segmentLength = i - segmentStart;
+            if (segmentLength == 0 && segmentStart > 0 && i < length) {
+                // "//"
+                return false;
+            }
+            if (segmentLength == 1 && path.charAt(segmentStart) == '.') {
+                return false;
+            }
+            if (segmentLength == 2 && path.charAt(segmentStart) == '.' && path.charAt(segmentStart + 1) == '.') {
+                return false;
+            }
+            segmentStart = i + 1;
+        }
+        return true;
+    }
+}
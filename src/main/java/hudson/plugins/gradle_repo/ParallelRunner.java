@@ -0,0 +1,131 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs per-repository tasks on a bounded number of threads. Network
+ * commands stay limited by {@link GitThrottle}, this only bounds how many
+ * repositories are worked on at once.
+ */
+final class ParallelRunner {
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private static final ThreadFactory FACTORY = new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Gradle Repo worker " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private ParallelRunner() {
+    }
+
+    /**
+     * Runs the tasks and returns their results in the order of the tasks.
+     * The first failure cancels the tasks not started yet and is thrown
+     * once the running ones are interrupted.
+     *
+     * @param threads
+     *            The maximum number of tasks running at once, 1 or less to
+     *            run them one after the other in the calling thread
+     */
+    static <T> List<T> run(final List<? extends Callable<T>> tasks, final int threads)
+            throws IOException, InterruptedException {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw rethrow(e);
+                }
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), FACTORY);
+        try {
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the tasks with the highest priority first, and returns their
+     * results in the order of the tasks. Tasks in the fast lane are expected
+     * to have no work: they are queued after all the others, so they take
+     * a worker only once every long task has started and never hold it back.
+     *
+     * @param priorities
+     *            The priority of each task, usually its expected duration
+     * @param fastLane
+     *            Whether each task goes to the fast lane
+     */
+    static <T> List<T> run(final List<? extends Callable<T>> tasks, final int threads, final long[] priorities,
+                           final boolean[] fastLane) throws IOException, InterruptedException {
+        final List<Callable<T>> ordered = new ArrayList<Callable<T>>(tasks.size());
+        final List<Integer> order = new ArrayList<Integer>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                if (fastLane[a] != fastLane[b]) {
+                    return fastLane[a] ? 1 : -1;
+                }
+                return Long.compare(priorities[b], priorities[a]);
+            }
+        });
+        for (int i : order) {
+            ordered.add(tasks.get(i));
+        }
+        // a fixed pool starts its tasks in the order they are submitted
+        final List<T> orderedResults = run(ordered, threads);
+        final List<T> results = new ArrayList<T>(Collections.<T>nCopies(tasks.size(), null));
+        for (int i = 0; i < order.size(); i++) {
+            results.set(order.get(i), orderedResults.get(i));
+        }
+        return results;
+    }
+
+    private static IOException rethrow(final Throwable t) throws InterruptedException {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof InterruptedException) {
+            throw (InterruptedException) t;
+        }
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        return new IOException(t);
+    }
+}
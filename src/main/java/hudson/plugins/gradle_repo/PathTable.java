@@ -0,0 +1,126 @@
+package hudson.plugins.gradle_repo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the file paths of a change log set as a trie of '/' separated
+ * segments, so directories shared by many files, commits and modules are
+ * stored once. A path is identified by the int id of its last node.
+ * <p>
+ * Paths are added with {@link #intern(String)} while the change log set is
+ * built, then {@link #trim()} drops the lookup tables and leaves the table
+ * read-only.
+ */
+final class PathTable {
+
+    private static final int ROOT = 0;
+
+    private int[] parents = new int[64];
+    private String[] names = new String[64];
+    private int size = 1;
+
+    /**
+     * Child node ids by segment, per node. Only needed while interning.
+     */
+    private List<Map<String, Integer>> children = new ArrayList<Map<String, Integer>>();
+    private Map<String, String> segments = new HashMap<String, String>();
+
+    PathTable() {
+        names[ROOT] = "";
+        children.add(null);
+    }
+
+    /**
+     * Returns the id of a path, adding it when missing.
+     */
+    int intern(final String path) {
+        if (children == null) {
+            throw new IllegalStateException("[repo] - path table is read-only");
+        }
+        int node = ROOT;
+        int start = 0;
+        while (true) {
+            final int slash = path.indexOf('/', start);
+            final int end = slash < 0 ? path.length() : slash;
+            node = child(node, path.substring(start, end));
+            if (slash < 0) {
+                return node;
+            }
+            start = slash + 1;
+        }
+    }
+
+    private int child(final int node, final String segment) {
+        Map<String, Integer> nodeChildren = children.get(node);
+        if (nodeChildren == null) {
+            nodeChildren = new HashMap<String, Integer>(4);
+            children.set(node, nodeChildren);
+        }
+        final Integer existing = nodeChildren.get(segment);
+        if (existing != null) {
+            return existing;
+        }
+
+        String name = segments.get(segment);
+        if (name == null) {
+            name = segment;
+            segments.put(name, name);
+        }
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        final int id = size++;
+        parents[id] = node;
+        names[id] = name;
+        children.add(null);
+        nodeChildren.put(name, id);
+        return id;
+    }
+
+    /**
+     * Returns the path with the given id.
+     */
+    String path(final int id) {
+        if (parents[id] == ROOT) {
+            return names[id];
+        }
+        int length = -1;
+        for (int node = id; node != ROOT; node = parents[node]) {
+            length += names[node].length() + 1;
+        }
+        final char[] path = new char[length];
+        int end = length;
+        for (int node = id; node != ROOT; node = parents[node]) {
+            final String name = names[node];
+            end -= name.length();
+            name.getChars(0, name.length(), path, end);
+            if (end > 0) {
+                path[--end] = '/';
+            }
+        }
+        return new String(path);
+    }
+
+    /**
+     * Drops the lookup tables and shrinks the arrays to the number of nodes.
+     * No paths can be added afterwards.
+     */
+    void trim() {
+        children = null;
+        segments = null;
+        parents = Arrays.copyOf(parents, size);
+        names = Arrays.copyOf(names, size);
+    }
+
+    /**
+     * Returns the number of nodes, including the root.
+     */
+    int size() {
+        return size;
+    }
+}
@@ -60,6 +60,10 @@ public class ProjectState extends SCMRevisionState implements Serializable {
         modules.put(path, ModuleState.constructCachedInstance(path, origin, branch, revision));
     }
 
+    public void addProject(String path, String origin, String branch, String revision, List<String> sparsePaths) {
+        modules.put(path, ModuleState.constructCachedInstance(path, origin, branch, revision, sparsePaths));
+    }
+
     /**
      * Returns the revision for the repository at the specified path.
      *
@@ -84,18 +88,18 @@ public class ProjectState extends SCMRevisionState implements Serializable {
             // Everything is new. The change log would include every change,
             // which might be a little unwieldy (and take forever to
             // generate/parse). Instead, we will return null (no changes)
-            debug.log(Level.INFO, "Everything is new");
+            debug.log(Level.FINE, "Everything is new");
             return null;
         }
         HashMap<String, ModuleState> previousStateCopy = new HashMap<String, ModuleState>(previousState.modules);
         for(Map.Entry<String, ModuleState> item : modules.entrySet()) {
             String key = item.getKey();
-            debug.log(Level.INFO, "key: " + key);
+            debug.log(Level.FINE, "key: {0}", key);
             final ModuleState status = previousStateCopy.get(key);
             if (status == null) {
                 // This is a new project, just added to the manifest.
                 final ModuleState newProject = item.getValue();
-                debug.log(Level.INFO, "New project: " + key);
+                debug.log(Level.FINE, "New project: {0}", key);
                 changes.add(ModuleState.constructCachedInstance(newProject.getPath(), newProject.getOrigin(), newProject.getBranch(), null));
             } else if (!status.equals(modules.get(key))) {
                 changes.add(status);
@@ -0,0 +1,281 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.CauseAction;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.triggers.SCMTriggerItem;
+import jenkins.util.Timer;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Gathers the push notifications for one job into a single build. A change
+ * spanning several modules usually arrives as a burst of pushes, one per
+ * repository, within a minute.
+ * <p>
+ * The first notification opens a window of the configured length; every
+ * further notification restarts it with twice the previous length, so the
+ * window grows with the burst. The build is scheduled when a window passes
+ * without notifications, and at the latest the configured maximum latency
+ * after the first one, without the quiet period of the job on top. The
+ * notified modules are recorded on the build as {@link CoalescedPushes}.
+ * <p>
+ * Unless one of the notifications carried the configured token, they are
+ * only a hint: once the window closes, the heads of the notified branches
+ * are read with "git ls-remote" on the controller, and the build is only
+ * scheduled when one of them moved from the revision recorded by the
+ * latest build. Notifications for branches the job does not use schedule
+ * nothing; a job never checked out is always scheduled.
+ */
+final class PushCoalescer {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.PushCoalescer");
+
+    private static final PushCoalescer INSTANCE = new PushCoalescer();
+
+    /**
+     * The timeout of "git ls-remote" checking notified branches, in minutes.
+     */
+    private static final int LS_REMOTE_TIMEOUT = 1;
+
+    /**
+     * The pending batch of each job, by job full name.
+     */
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    private PushCoalescer() {
+    }
+
+    static PushCoalescer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a push to the batch of a job, opening one if needed.
+     *
+     * @param window
+     *            The initial window in milliseconds, 0 or less to schedule
+     *            the build right away
+     * @param maxLatency
+     *            The longest time in milliseconds a build is held back after
+     *            the first notification
+     * @param authenticated
+     *            Whether the notification carried the configured token
+     */
+    synchronized void notify(final String jobName, final String url, final String branch, final long window,
+                             final long maxLatency, final boolean authenticated) {
+        final long now = System.currentTimeMillis();
+        Batch batch = batches.get(jobName);
+        if (batch == null) {
+            batch = new Batch(jobName, now, window);
+            batches.put(jobName, batch);
+        } else {
+            batch.future.cancel(false);
+            batch.window *= 2;
+        }
+        batch.pushes.add(new Push(url, branch));
+        batch.notifications++;
+        batch.authenticated |= authenticated;
+
+        final long deadline = Math.min(now + batch.window, batch.first + maxLatency);
+        final Batch scheduled = batch;
+        batch.future = Timer.get().schedule(new Runnable() {
+            public void run() {
+                fire(scheduled);
+            }
+        }, Math.max(0, deadline - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void fire(final Batch batch) {
+        synchronized (this) {
+            if (batches.get(batch.jobName) != batch) {
+                // rescheduled in the meantime
+                return;
+            }
+            batches.remove(batch.jobName);
+        }
+        // checking the heads talks to the git server, keep it off the timer
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                schedule(batch);
+            }
+        });
+    }
+
+    private void schedule(final Batch batch) {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        final SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+        try {
+            final Job<?, ?> job = jenkins.getItemByFullName(batch.jobName, Job.class);
+            final SCMTriggerItem item = job == null ? null : SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(job);
+            if (item == null || !job.isBuildable()) {
+                return;
+            }
+            final List<String> pushes = new ArrayList<String>(batch.pushes.size());
+            for (Push push : batch.pushes) {
+                pushes.add(push.toString());
+            }
+            // a job without a recorded state has never been checked out
+            final ProjectState state = RepoMaintenance.getLastState(job);
+            final List<ModuleState> modules = modules(state, batch.pushes);
+            if (!batch.authenticated && state != null && !moved(jenkins, modules)) {
+                debug.info("Ignored " + batch.notifications + " push notifications for " + batch.jobName
+                        + ", no notified branch moved: " + pushes);
+                return;
+            }
+            final List<String> paths = new ArrayList<String>(modules.size());
+            for (ModuleState module : modules) {
+                paths.add(module.getPath());
+            }
+            final CoalescedPushes coalesced = new CoalescedPushes(paths, pushes,
+                    batch.notifications, System.currentTimeMillis() - batch.first);
+            // the window already served as the quiet period
+            item.scheduleBuild2(0, new CauseAction(new RepoPushNotification.PushCause(pushes)), coalesced);
+            debug.info("Scheduled " + batch.jobName + " for " + batch.notifications + " push notifications: "
+                    + pushes);
+        } catch (RuntimeException e) {
+            debug.warning("Could not schedule " + batch.jobName + ": " + e);
+        } finally {
+            SecurityContextHolder.setContext(context);
+        }
+    }
+
+    /**
+     * Returns whether the head of the branch of one of the modules differs
+     * from the revision recorded for it. No module means the notifications
+     * named no branch the job uses, which did not move.
+     */
+    private static boolean moved(final Jenkins jenkins, final List<ModuleState> modules) {
+        if (modules.isEmpty()) {
+            return false;
+        }
+        final GitHelper gitHelper = new GitHelper(jenkins.createLauncher(TaskListener.NULL), new EnvVars(),
+                TaskListener.NULL);
+        final RepoScm.DescriptorImpl descriptor = jenkins.getDescriptorByType(RepoScm.DescriptorImpl.class);
+        // a notification must not hold a thread of the controller for long
+        gitHelper.setTimeouts(LS_REMOTE_TIMEOUT, LS_REMOTE_TIMEOUT, GitHelper.DEFAULT_LOCAL_TIMEOUT);
+        gitHelper.setConcurrencyLimits("", descriptor.getMaxConcurrentPerNode(), descriptor.getMaxConcurrentPerController());
+        final FilePath root = new FilePath(jenkins.getRootDir());
+        final Map<String, Map<String, String>> heads = new HashMap<String, Map<String, String>>();
+        for (ModuleState module : modules) {
+            if (module.getRevision() == null) {
+                return true;
+            }
+            Map<String, String> originHeads = heads.get(module.getOrigin());
+            if (originHeads == null) {
+                try {
+                    originHeads = gitHelper.lsRemoteHeads(root, module.getOrigin());
+                } catch (RuntimeException e) {
+                    debug.warning("Could not list the branches of " + module.getOrigin() + ": " + e.getMessage());
+                    originHeads = Collections.emptyMap();
+                }
+                heads.put(module.getOrigin(), originHeads);
+            }
+            final String head = originHeads.get(module.getBranch());
+            if (head != null && !head.equals(module.getRevision())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the modules of the job the pushes went to, from the state of
+     * its latest build.
+     */
+    private static List<ModuleState> modules(final ProjectState state, final Set<Push> pushes) {
+        final Set<ModuleState> matched = new LinkedHashSet<ModuleState>();
+        if (state == null) {
+            return new ArrayList<ModuleState>(matched);
+        }
+        final List<ModuleState> modules = new ArrayList<ModuleState>(state.modules.values());
+        if (state.project != null) {
+            modules.add(state.project);
+        }
+        for (Push push : pushes) {
+            for (ModuleState module : modules) {
+                if (push.origin.equals(OriginResolver.canonical(module.getOrigin()))
+                        && (push.branch == null || push.branch.equals(module.getBranch()))) {
+                    matched.add(module);
+                }
+            }
+        }
+        return new ArrayList<ModuleState>(matched);
+    }
+
+    /**
+     * The pending notifications of one job.
+     */
+    private static final class Batch {
+
+        private final String jobName;
+        private final long first;
+        private final Set<Push> pushes = new LinkedHashSet<Push>();
+        private long window;
+        private int notifications;
+        private boolean authenticated;
+        private ScheduledFuture<?> future;
+
+        Batch(final String jobName, final long first, final long window) {
+            this.jobName = jobName;
+            this.first = first;
+            this.window = Math.max(0, window);
+        }
+    }
+
+    /**
+     * A notified repository and branch, null for any branch.
+     */
+    private static final class Push {
+
+        private final String url;
+        private final String origin;
+        private final String branch;
+
+        Push(final String url, final String branch) {
+            this.url = url;
+            this.origin = OriginResolver.canonical(url);
+            this.branch = branch;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Push)) {
+                return false;
+            }
+            final Push other = (Push) obj;
+            return origin.equals(other.origin) && Util.fixNull(branch).equals(Util.fixNull(other.branch));
+        }
+
+        @Override
+        public int hashCode() {
+            return origin.hashCode() * 31 + Util.fixNull(branch).hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return branch == null ? url : url + " " + branch;
+        }
+    }
+}
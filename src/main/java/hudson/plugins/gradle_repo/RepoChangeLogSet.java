@@ -1,18 +1,51 @@
 package hudson.plugins.gradle_repo;
 
+import hudson.model.AbstractBuild;
 import hudson.model.Run;
+import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.RepositoryBrowser;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A ChangeLogSet, which is used when generating the list of changes from one
  * build to the next.
+ * <p>
+ * The changes page shows the entries grouped by module, {@link #PAGE_SIZE}
+ * at a time, and loads the modified files of an entry on demand from
+ * {@link #doFiles}. Only the change log of an {@link AbstractBuild} is
+ * reachable at "changeSet" for that; other runs list the files inline.
+ * <p>
+ * The paths of the modified files are kept in one {@link PathTable} per set,
+ * which stores the directories shared by many files only once.
  */
 public class RepoChangeLogSet extends ChangeLogSet<ChangeLogEntry> {
+
+    /**
+     * The number of entries of a module shown per page.
+     */
+    public static final int PAGE_SIZE = 50;
+
     private final List<ChangeLogEntry> logs;
+    private final ChangeLogSummary summary;
+    private final PathTable paths = new PathTable();
+    private transient List<ModuleChanges> moduleChanges;
+    private transient Map<String, User> users;
 
     /**
      * Object Constructor. Call the super class, initialize our variable, and
@@ -28,11 +61,25 @@ public class RepoChangeLogSet extends ChangeLogSet<ChangeLogEntry> {
      */
     RepoChangeLogSet(final Run build,
                      final RepositoryBrowser<?> browser, final List<ChangeLogEntry> logs) {
+        this(build, browser, logs, null);
+    }
+
+    /**
+     * @param summary
+     *            The summary stored with the change log, null to compute it
+     *            from the entries
+     */
+    RepoChangeLogSet(final Run build, final RepositoryBrowser<?> browser, final List<ChangeLogEntry> logs,
+                     final ChangeLogSummary summary) {
         super(build, browser);
         this.logs = logs;
-        for (final ChangeLogEntry log : logs) {
-            log.setParent(this);
+        for (int i = 0; i < logs.size(); i++) {
+            logs.get(i).setParent(this);
+            logs.get(i).setIndex(i);
+            logs.get(i).internPaths(paths);
         }
+        paths.trim();
+        this.summary = summary != null ? summary : ChangeLogSummary.of(logs);
     }
 
     /**
@@ -52,4 +99,150 @@ public class RepoChangeLogSet extends ChangeLogSet<ChangeLogEntry> {
     public String getKind() {
         return "gradle repo";
     }
+
+    public ChangeLogSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Returns the entries grouped by module, in change log order.
+     */
+    public synchronized List<ModuleChanges> getModuleChanges() {
+        if (moduleChanges == null) {
+            final Map<String, List<ChangeLogEntry>> groups = new LinkedHashMap<String, List<ChangeLogEntry>>();
+            for (ChangeLogEntry log : logs) {
+                List<ChangeLogEntry> group = groups.get(log.getPath());
+                if (group == null) {
+                    group = new ArrayList<ChangeLogEntry>();
+                    groups.put(log.getPath(), group);
+                }
+                group.add(log);
+            }
+            final List<ModuleChanges> changes = new ArrayList<ModuleChanges>(groups.size());
+            for (Map.Entry<String, List<ChangeLogEntry>> group : groups.entrySet()) {
+                changes.add(new ModuleChanges(group.getKey(), group.getValue()));
+            }
+            moduleChanges = Collections.unmodifiableList(changes);
+        }
+        return moduleChanges;
+    }
+
+    /**
+     * Returns the user for an author or committer email address. Users are
+     * resolved once per change log set, all at once on the first call, since
+     * {@link User#get(String)} is slow and takes locks.
+     */
+    synchronized User getUser(final String email) {
+        if (users == null) {
+            users = new HashMap<String, User>();
+            for (ChangeLogEntry log : logs) {
+                resolveUser(log.getAuthorEmail());
+                resolveUser(log.getCommitterEmail());
+            }
+        }
+        User user = users.get(email);
+        if (user == null) {
+            user = User.get(email);
+            users.put(email, user);
+        }
+        return user;
+    }
+
+    private void resolveUser(final String email) {
+        if (email != null && !users.containsKey(email)) {
+            users.put(email, User.get(email));
+        }
+    }
+
+    /**
+     * Parses a page number from the request, 0 when missing or invalid.
+     */
+    public int toPage(final String page) {
+        if (page == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(page.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the URL of {@link #doFiles} relative to the context path,
+     * null when the run does not expose its change log at "changeSet".
+     */
+    public String getFilesUrl() {
+        final Run<?, ?> run = getRun();
+        return run instanceof AbstractBuild ? run.getUrl() + "changeSet/files" : null;
+    }
+
+    /**
+     * Returns the modified files of an entry as JSON: an array of objects
+     * with "path", "action" and "editType", and "src" for renamed and copied
+     * files.
+     *
+     * @param entry
+     *            The index of the entry, see {@link ChangeLogEntry#getIndex()}
+     */
+    public HttpResponse doFiles(@QueryParameter final int entry) {
+        if (entry < 0 || entry >= logs.size()) {
+            return HttpResponses.notFound();
+        }
+        final JSONArray files = new JSONArray();
+        final List<ChangeLogEntry.ModifiedFile> modifiedFiles = logs.get(entry).getModifiedFiles();
+        if (modifiedFiles != null) {
+            for (ChangeLogEntry.ModifiedFile file : modifiedFiles) {
+                final JSONObject json = new JSONObject()
+                        .element("path", file.getPath())
+                        .element("action", String.valueOf(file.getAction()))
+                        .element("editType", file.getEditType().getName());
+                if (file.getSrcPath() != null) {
+                    json.element("src", file.getSrcPath());
+                }
+                files.add(json);
+            }
+        }
+        return new HttpResponse() {
+            public void generateResponse(final StaplerRequest req, final StaplerResponse rsp, final Object node)
+                    throws IOException {
+                rsp.setContentType("application/json;charset=UTF-8");
+                rsp.getWriter().print(files.toString());
+            }
+        };
+    }
+
+    /**
+     * The entries of one module.
+     */
+    public static final class ModuleChanges {
+
+        private final String path;
+        private final List<ChangeLogEntry> entries;
+
+        ModuleChanges(final String path, final List<ChangeLogEntry> entries) {
+            this.path = path;
+            this.entries = entries;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getCount() {
+            return entries.size();
+        }
+
+        public int getPageCount() {
+            return (entries.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        }
+
+        /**
+         * Returns the entries of a page, the last page when past the end.
+         */
+        public List<ChangeLogEntry> getPage(final int page) {
+            final int first = Math.min(page, Math.max(0, getPageCount() - 1)) * PAGE_SIZE;
+            return entries.subList(first, Math.min(first + PAGE_SIZE, entries.size()));
+        }
+    }
 }
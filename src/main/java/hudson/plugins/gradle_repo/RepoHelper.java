@@ -1,6 +1,7 @@
 package hudson.plugins.gradle_repo;
 
 import hudson.FilePath;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -11,14 +12,29 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class RepoHelper {
 
     public static ProjectState getProjectState(FilePath workspace, boolean includeRevision, GitHelper gitHelper, PrintStream logger) {
+        return getProjectState(workspace, includeRevision, gitHelper, logger, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Parses repo.xml of the workspace.
+     *
+     * @param includeRevision
+     *            Whether to record the current revision of every repository
+     * @param knownRevisions
+     *            Revisions already known from updating the repositories, by
+     *            path ("./" for the project). Only the other repositories
+     *            are asked for their revision.
+     */
+    public static ProjectState getProjectState(FilePath workspace, boolean includeRevision, GitHelper gitHelper, PrintStream logger,
+                                               Map<String, String> knownRevisions) {
         ProjectState projectState = new ProjectState();
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -54,10 +70,10 @@ public class RepoHelper {
             }
 
             if (projectOrigin.startsWith("http") || projectOrigin.startsWith("git@")) {
-                projectOrigin = filterOrigin(projectOrigin);
+                projectOrigin = OriginResolver.resolve(projectOrigin);
             } else {
                 if (defaultInfo != null && defaultInfo.fetchUrl != null) {
-                    projectOrigin = filterOrigin(defaultInfo, projectOrigin);
+                    projectOrigin = OriginResolver.resolve(defaultInfo.fetchUrl, projectOrigin);
                 } else {
                     throw new RuntimeException("[repo] - The 'origin' attribute value of the '<project />' element is invalid.");
                 }
@@ -75,8 +91,11 @@ public class RepoHelper {
 
             // project current revision
             String projectRevision = null;
-            if (includeRevision && workspace.exists() && gitHelper.isGit(workspace)) {
-                projectRevision = gitHelper.getRevision(workspace);
+            if (includeRevision) {
+                projectRevision = knownRevisions.get("./");
+                if (projectRevision == null && workspace.exists() && gitHelper.isGit(workspace)) {
+                    projectRevision = gitHelper.getRevision(workspace);
+                }
             }
             projectState.project = ModuleState.constructCachedInstance("./", projectOrigin, projectBranch, projectRevision);
 
@@ -84,16 +103,7 @@ public class RepoHelper {
             if (defaultInfo == null) {
                 defaultInfo = new RepositoryInfo();
                 defaultInfo.branch = projectBranch;
-                String fetchUrl = projectOrigin;
-                if (fetchUrl.startsWith("git@")) {
-                    String[] temp = fetchUrl.split(":");
-                    defaultInfo.fetchUrl = temp[0] + ":" + temp[1].substring(0, temp[1].lastIndexOf("/"));
-                } else {
-                    URI uri = new URI(fetchUrl);
-                    String path = uri.getPath();
-                    String parent = path.substring(0, path.lastIndexOf("/"));
-                    defaultInfo.fetchUrl = fetchUrl.replace(uri.getPath(), "") + parent;
-                }
+                defaultInfo.fetchUrl = OriginResolver.parent(projectOrigin);
             }
 
             List<String> includeModuleList = new ArrayList<String>();
@@ -129,10 +139,10 @@ public class RepoHelper {
 
                 String moduleOrigin = moduleElement.getAttribute("origin");
                 if (moduleOrigin.startsWith("http") || moduleOrigin.startsWith("git@")) {
-                    moduleOrigin = filterOrigin(moduleOrigin);
+                    moduleOrigin = OriginResolver.resolve(moduleOrigin);
                 } else {
                     if (defaultInfo != null && defaultInfo.fetchUrl != null) {
-                        moduleOrigin = filterOrigin(defaultInfo, moduleOrigin);
+                        moduleOrigin = OriginResolver.resolve(defaultInfo.fetchUrl, moduleOrigin);
                     } else {
                         throw new RuntimeException("[repo] - The 'origin' attribute value of the '<module />' element is invalid.");
                     }
@@ -150,22 +160,33 @@ public class RepoHelper {
                 // module origin revision
                 String moduleRevision = null;
                 if (includeRevision) {
+                    moduleRevision = knownRevisions.get(path);
                     FilePath moduleDir = new FilePath(workspace, path);
-                    if (moduleDir.exists() && gitHelper.isGit(moduleDir)) {
+                    if (moduleRevision == null && moduleDir.exists() && gitHelper.isGit(moduleDir)) {
                         moduleRevision = gitHelper.getRevision(moduleDir);
                     }
                 }
-                projectState.addProject(path, moduleOrigin, moduleBranch, moduleRevision);
+                // directories for cone-mode sparse checkout
+                List<String> sparsePaths = new ArrayList<String>();
+                NodeList sparseNodeList = moduleElement.getElementsByTagName("sparse");
+                for (int j = 0; j < sparseNodeList.getLength(); j++) {
+                    String sparsePath = ((Element) sparseNodeList.item(j)).getAttribute("path").trim();
+                    while (sparsePath.startsWith("/") || sparsePath.startsWith("./")) {
+                        sparsePath = sparsePath.substring(sparsePath.startsWith("/") ? 1 : 2);
+                    }
+                    if (sparsePath.isEmpty()) {
+                        throw new RuntimeException("[repo] - The 'path' attribute value of the '<sparse />' element of module '" + name + "' is invalid.");
+                    }
+                    sparsePaths.add(sparsePath);
+                }
+
+                projectState.addProject(path, moduleOrigin, moduleBranch, moduleRevision, sparsePaths);
 //                logger.println("module: " + name + ", origin: " + moduleOrigin + ", branch: " + moduleBranch + ", path: " + path + ", revision: " + moduleRevision);
             }
         } catch (IOException e) {
             if (logger != null) {
                 logger.println(e);
             }
-        } catch (URISyntaxException e) {
-            if (logger != null) {
-                logger.println(e);
-            }
         } catch (ParserConfigurationException e) {
             if (logger != null) {
                 logger.println(e);
@@ -182,37 +203,52 @@ public class RepoHelper {
         return projectState;
     }
 
-    private static String filterOrigin(RepositoryInfo defaultInfo, String origin) throws URISyntaxException {
-        String url;
-        String fetchUrl = defaultInfo.fetchUrl + "/./" + origin;
-        if (fetchUrl.startsWith("git@")) {
-            String[] temp = fetchUrl.split(":");
-            url = temp[0] + ":" + PathUtils.normalize(temp[1], true);
-        } else {
-            URI uri = new URI(fetchUrl);
-            url = fetchUrl.replace(uri.getPath(), "") + PathUtils.normalize(uri.getPath(), true);
-        }
-
-        if (!url.endsWith(".git")) {
-            url += ".git";
+    /**
+     * Returns a manifest that pins every repository of the state to its
+     * revision, with absolute origins.
+     */
+    public static String getPinnedManifest(ProjectState state) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<manifest>\n");
+        xml.append("    <project");
+        appendAttribute(xml, "origin", state.project.getOrigin());
+        appendAttribute(xml, "branch", state.project.getBranch());
+        appendAttribute(xml, "revision", state.project.getRevision());
+        xml.append("/>\n");
+        for (ModuleState module : state.modules.values()) {
+            if (module == state.project || "./".equals(module.getPath())) {
+                continue;
+            }
+            String path = module.getPath();
+            int slash = path.lastIndexOf('/');
+            xml.append("    <module");
+            appendAttribute(xml, "name", path.substring(slash + 1));
+            appendAttribute(xml, "local", slash < 0 ? "./" : path.substring(0, slash + 1));
+            appendAttribute(xml, "origin", module.getOrigin());
+            appendAttribute(xml, "branch", module.getBranch());
+            appendAttribute(xml, "revision", module.getRevision());
+            if (module.getSparsePaths().isEmpty()) {
+                xml.append("/>\n");
+                continue;
+            }
+            xml.append(">\n");
+            for (String sparsePath : module.getSparsePaths()) {
+                xml.append("        <sparse");
+                appendAttribute(xml, "path", sparsePath);
+                xml.append("/>\n");
+            }
+            xml.append("    </module>\n");
         }
-        return url;
+        xml.append("</manifest>\n");
+        return xml.toString();
     }
 
-    private static String filterOrigin(String origin) throws URISyntaxException {
-        String url;
-        if (origin.startsWith("git@")) {
-            String[] temp = origin.split(":");
-            url = temp[0] + ":" + PathUtils.normalize(temp[1], true);
-        } else {
-            URI uri = new URI(origin);
-            url = origin.replace(uri.getPath(), "") + PathUtils.normalize(uri.getPath(), true);
-        }
-
-        if (!url.endsWith(".git")) {
-            url += ".git";
+    private static void appendAttribute(StringBuilder xml, String name, String value) {
+        if (value == null) {
+            return;
         }
-        return url;
+        xml.append(' ').append(name).append("=\"").append(StringEscapeUtils.escapeXml(value)).append('"');
     }
 
 }
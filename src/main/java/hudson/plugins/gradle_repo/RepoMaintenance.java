@@ -0,0 +1,202 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.TopLevelItem;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Daily maintenance of the workspaces of Gradle Repo jobs on all online
+ * nodes, including the "job@2" workspaces of additional executors. Each
+ * repository gets an incremental repack, a commit-graph and a prune, see
+ * {@link MaintainModules}. A workspace with a checkout in progress is
+ * skipped until the next run.
+ * <p>
+ * Enabled in the global configuration. The log of every run is available
+ * as the "Gradle Repo workspace maintenance" task log.
+ */
+@Extension
+public class RepoMaintenance extends AsyncPeriodicWork {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.RepoMaintenance");
+
+    /**
+     * How many builds to look back for the modules of a job.
+     */
+    private static final int MAX_BUILDS_SEARCHED = 20;
+
+    public RepoMaintenance() {
+        super("Gradle Repo workspace maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return DAY;
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) throws IOException, InterruptedException {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        final RepoScm.DescriptorImpl descriptor = jenkins.getDescriptorByType(RepoScm.DescriptorImpl.class);
+        if (descriptor == null || !descriptor.isWorkspaceMaintenance()) {
+            return;
+        }
+        final List<Node> nodes = new ArrayList<Node>(jenkins.getNodes());
+        nodes.add(jenkins);
+
+        final Totals totals = new Totals();
+        for (AbstractProject<?, ?> project : jenkins.getAllItems(AbstractProject.class)) {
+            if (!(project.getScm() instanceof RepoScm) || !(project instanceof TopLevelItem)) {
+                continue;
+            }
+            final ProjectState state = getLastState(project);
+            if (state == null) {
+                continue;
+            }
+            for (Node node : nodes) {
+                final Computer computer = node.toComputer();
+                if (computer == null || !computer.isOnline()) {
+                    continue;
+                }
+                final FilePath workspace = node.getWorkspaceFor((TopLevelItem) project);
+                if (workspace == null) {
+                    continue;
+                }
+                for (FilePath executorWorkspace : getExecutorWorkspaces(workspace)) {
+                    maintain(project, node, computer.getName(), executorWorkspace, state, descriptor, listener, totals);
+                }
+            }
+        }
+
+        final String summary = "[repo] - maintained " + totals.repositories + " repositories in "
+                + (totals.millis / 1000) + "s, git log saved " + totals.logSaved + "ms, git fetch saved "
+                + totals.fetchSaved + "ms";
+        listener.getLogger().println(summary);
+        debug.info(summary);
+    }
+
+    private void maintain(final Job<?, ?> job, final Node node, final String nodeName, final FilePath workspace,
+                          final ProjectState state, final RepoScm.DescriptorImpl descriptor, final TaskListener listener,
+                          final Totals totals) throws InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        final WorkspaceLock lock = WorkspaceLock.forNode(nodeName, workspace.getRemote());
+        if (!lock.tryLock()) {
+            logger.println("[repo] - skip [" + workspace.getRemote() + "], a checkout is running.");
+            return;
+        }
+        try {
+            if (!workspace.exists()) {
+                return;
+            }
+            // the environment of the job on that node, for git and ssh
+            final GitHelper gitHelper = new GitHelper(node.createLauncher(listener), job.getEnvironment(node, listener),
+                    listener);
+            gitHelper.setConcurrencyLimits(nodeName, descriptor.getMaxConcurrentPerNode(), descriptor.getMaxConcurrentPerController());
+            final MaintainModules.StopSignal stop = new MaintainModules.StopSignal() {
+                @Override
+                public boolean isStopRequested() {
+                    return lock.hasWaiters();
+                }
+            };
+            for (MaintenanceResult result : MaintainModules.maintain(gitHelper, workspace,
+                    new ArrayList<ModuleState>(state.modules.values()), stop)) {
+                logger.println("[repo] - " + workspace.getRemote() + " " + result);
+                totals.add(result);
+            }
+        } catch (IOException e) {
+            logger.println("[repo] - fail to maintain [" + workspace.getRemote() + "]: " + e);
+        } catch (RuntimeException e) {
+            logger.println("[repo] - fail to maintain [" + workspace.getRemote() + "]: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the workspace and those of additional executors next to it,
+     * "name@2", "name@3"...
+     */
+    private static List<FilePath> getExecutorWorkspaces(final FilePath workspace) throws InterruptedException {
+        final List<FilePath> workspaces = new ArrayList<FilePath>();
+        workspaces.add(workspace);
+        final FilePath parent = workspace.getParent();
+        if (parent == null) {
+            return workspaces;
+        }
+        final String prefix = workspace.getName() + "@";
+        try {
+            if (!parent.exists()) {
+                return workspaces;
+            }
+            for (FilePath dir : parent.listDirectories()) {
+                final String name = dir.getName();
+                if (name.startsWith(prefix) && name.length() > prefix.length() && isNumber(name.substring(prefix.length()))) {
+                    workspaces.add(dir);
+                }
+            }
+        } catch (IOException e) {
+            debug.fine("fail to list " + parent.getRemote() + ": " + e);
+        }
+        return workspaces;
+    }
+
+    private static boolean isNumber(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the state recorded by the latest build of a job which has one,
+     * searching at most {@link #MAX_BUILDS_SEARCHED} builds.
+     */
+    static ProjectState getLastState(final Job<?, ?> job) {
+        Run<?, ?> build = job.getLastBuild();
+        for (int i = 0; build != null && i < MAX_BUILDS_SEARCHED; i++) {
+            final ProjectState state = build.getAction(ProjectState.class);
+            if (state != null) {
+                return state;
+            }
+            build = build.getPreviousBuild();
+        }
+        return null;
+    }
+
+    private static final class Totals {
+
+        private int repositories;
+        private long millis;
+        private long logSaved;
+        private long fetchSaved;
+
+        void add(final MaintenanceResult result) {
+            repositories++;
+            millis += result.getMillis();
+            if (result.getLogMillisBefore() != MaintenanceResult.UNKNOWN && result.getLogMillisAfter() != MaintenanceResult.UNKNOWN) {
+                logSaved += result.getLogMillisBefore() - result.getLogMillisAfter();
+            }
+            if (result.getFetchMillisBefore() != MaintenanceResult.UNKNOWN && result.getFetchMillisAfter() != MaintenanceResult.UNKNOWN) {
+                fetchSaved += result.getFetchMillisBefore() - result.getFetchMillisAfter();
+            }
+        }
+    }
+}
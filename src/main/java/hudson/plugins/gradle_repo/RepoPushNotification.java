@@ -0,0 +1,196 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Cause;
+import hudson.model.Job;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.ACL;
+import hudson.security.csrf.CrumbExclusion;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.triggers.SCMTriggerItem;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Push notifications from the git server, so jobs do not have to poll:
+ * <pre>
+ * curl -X POST "$JENKINS_URL/gradle-repo/notifyCommit?url=git@host:group/module.git&amp;branch=master&amp;token=..."
+ * </pre>
+ * Notifies every job whose project or modules use that repository and
+ * branch, found through the {@link OriginIndex}; without a branch, every
+ * job using the repository on any branch. Notifications arriving in a
+ * burst are gathered into one build per job by the {@link PushCoalescer}.
+ * <p>
+ * The endpoint needs no Jenkins credentials. When a push token is
+ * configured, notifications without it are refused and notifications with
+ * it schedule builds. Without a token, a notification is only a hint: a job
+ * is built only if the head of one of its notified branches moved from the
+ * revision its latest build recorded, so replayed or forged notifications
+ * cost an "ls-remote" at most. The response only tells how many jobs were
+ * notified, not which. Git servers cannot send a CSRF crumb, so the
+ * endpoint is excluded from crumb checks.
+ */
+@Extension
+public class RepoPushNotification implements UnprotectedRootAction {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.RepoPushNotification");
+
+    private static final String URL_NAME = "gradle-repo";
+
+    private static final String REFS_HEADS = "refs/heads/";
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * Schedules the jobs using a repository.
+     *
+     * @param url
+     *            The clone URL of the pushed repository, in any form
+     * @param branch
+     *            The pushed branch, with or without "refs/heads/"; empty for
+     *            any branch
+     * @param token
+     *            The configured push token, if any
+     */
+    @RequirePOST
+    public HttpResponse doNotifyCommit(@QueryParameter(required = true) final String url,
+                                       @QueryParameter final String branch,
+                                       @QueryParameter final String token) {
+        if (Util.fixEmptyAndTrim(url) == null) {
+            return HttpResponses.errorWithoutStack(400, "[repo] - Missing 'url' parameter");
+        }
+        if (!OriginResolver.isCanonical(url)) {
+            return HttpResponses.errorWithoutStack(400, "[repo] - Invalid 'url' parameter");
+        }
+        String pushedBranch = Util.fixEmptyAndTrim(branch);
+        if (pushedBranch != null && pushedBranch.startsWith(REFS_HEADS)) {
+            pushedBranch = pushedBranch.substring(REFS_HEADS.length());
+        }
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return HttpResponses.errorWithoutStack(503, "[repo] - Jenkins is not ready");
+        }
+        final RepoScm.DescriptorImpl descriptor = jenkins.getDescriptorByType(RepoScm.DescriptorImpl.class);
+        final String pushToken = Secret.toString(descriptor.getPushToken());
+        final boolean authenticated = !pushToken.isEmpty();
+        if (authenticated && !matches(pushToken, Util.fixNull(token))) {
+            return HttpResponses.errorWithoutStack(403, "[repo] - Invalid token");
+        }
+        final long window = TimeUnit.SECONDS.toMillis(descriptor.getPushCoalesceWindow());
+        final long maxLatency = TimeUnit.SECONDS.toMillis(descriptor.getMaxPushLatency());
+        int notified = 0;
+        final SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+        try {
+            final Set<String> names = OriginIndex.get().lookup(url, pushedBranch);
+            for (String name : names) {
+                final Job<?, ?> job = jenkins.getItemByFullName(name, Job.class);
+                if (job == null || !job.isBuildable() || SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(job) == null) {
+                    continue;
+                }
+                PushCoalescer.get().notify(name, url.trim(), pushedBranch, window, maxLatency, authenticated);
+                notified++;
+            }
+        } finally {
+            SecurityContextHolder.setContext(context);
+        }
+        debug.info("Push to " + url + " " + Util.fixNull(pushedBranch) + " notified " + notified + " jobs");
+        return HttpResponses.plainText("Notified " + notified + " jobs\n");
+    }
+
+    /**
+     * Compares tokens in a time independent of where they differ.
+     */
+    private static boolean matches(final String expected, final String actual) {
+        try {
+            return MessageDigest.isEqual(expected.getBytes("UTF-8"), actual.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lets notifications through without a CSRF crumb.
+     */
+    @Extension
+    public static final class CrumbExclusionImpl extends CrumbExclusion {
+
+        @Override
+        public boolean process(final HttpServletRequest req, final HttpServletResponse resp, final FilterChain chain)
+                throws IOException, ServletException {
+            final String pathInfo = req.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The cause of a build scheduled by push notifications.
+     */
+    public static final class PushCause extends Cause {
+
+        private final List<String> pushes;
+
+        PushCause(final List<String> pushes) {
+            this.pushes = new ArrayList<String>(pushes);
+        }
+
+        /**
+         * Returns the notified repositories, with their branch if given.
+         */
+        public List<String> getPushes() {
+            return Collections.unmodifiableList(pushes);
+        }
+
+        @Override
+        public String getShortDescription() {
+            if (pushes.size() == 1) {
+                return "Started by a push to " + pushes.get(0);
+            }
+            return "Started by " + pushes.size() + " pushes to " + pushes;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof PushCause && pushes.equals(((PushCause) obj).pushes);
+        }
+
+        @Override
+        public int hashCode() {
+            return pushes.hashCode();
+        }
+    }
+}
@@ -6,8 +6,13 @@ import hudson.scm.ChangeLogParser;
 import hudson.scm.SCM;
 import hudson.scm.SCMDescriptor;
 import hudson.scm.SCMRevisionState;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -18,6 +23,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -37,9 +48,39 @@ public class RepoScm extends SCM implements Serializable {
     public static final String PROJECT_REPO_URL = "PROJECT_REPO_URL";
     public static final String PROJECT_BRANCH = "PROJECT_BRANCH";
 
+    /**
+     * A build parameter holding the number of a previous build. When set,
+     * the workspace is checked out exactly at the state recorded by that
+     * build rather than at the branch heads.
+     */
+    public static final String PINNED_BUILD = "REPO_PINNED_BUILD";
+
+    /**
+     * The artifact holding the manifest with the revision of every
+     * repository.
+     */
+    public static final String PINNED_MANIFEST = "repo-pinned.xml";
+
     private final String repositoryUrl;
     private final String branch;
 
+    private int cloneTimeout;
+    private int fetchTimeout;
+    private int localTimeout;
+    private int networkRetries;
+    private boolean sshMultiplexing;
+    private UpdateStrategy updateStrategy;
+    private boolean cleanChangedModules;
+    private boolean sharedObjectStore;
+    private boolean archivePinnedManifest;
+    private boolean detectRenames;
+    private boolean detectCopies;
+    private int renameSimilarity;
+    private int renameLimit;
+    private boolean workspaceSnapshots;
+    private int parallelism;
+    private boolean quietOutput;
+
     private transient GitHelper gitHelper;
 
     private ProjectState currentState;
@@ -60,6 +101,241 @@ public class RepoScm extends SCM implements Serializable {
         return branch;
     }
 
+    /**
+     * Returns the timeout of "git clone", in minutes.
+     */
+    @Exported
+    public int getCloneTimeout() {
+        return cloneTimeout > 0 ? cloneTimeout : GitHelper.DEFAULT_CLONE_TIMEOUT;
+    }
+
+    @DataBoundSetter
+    public void setCloneTimeout(final int cloneTimeout) {
+        this.cloneTimeout = cloneTimeout;
+    }
+
+    /**
+     * Returns the timeout of "git fetch" and "git pull", in minutes.
+     */
+    @Exported
+    public int getFetchTimeout() {
+        return fetchTimeout > 0 ? fetchTimeout : GitHelper.DEFAULT_FETCH_TIMEOUT;
+    }
+
+    @DataBoundSetter
+    public void setFetchTimeout(final int fetchTimeout) {
+        this.fetchTimeout = fetchTimeout;
+    }
+
+    /**
+     * Returns the timeout of git commands which do not touch the network,
+     * in minutes.
+     */
+    @Exported
+    public int getLocalTimeout() {
+        return localTimeout > 0 ? localTimeout : GitHelper.DEFAULT_LOCAL_TIMEOUT;
+    }
+
+    @DataBoundSetter
+    public void setLocalTimeout(final int localTimeout) {
+        this.localTimeout = localTimeout;
+    }
+
+    /**
+     * Returns how many times a failed clone, fetch or pull is retried.
+     */
+    @Exported
+    public int getNetworkRetries() {
+        return networkRetries;
+    }
+
+    @DataBoundSetter
+    public void setNetworkRetries(final int networkRetries) {
+        this.networkRetries = Math.max(0, networkRetries);
+    }
+
+    /**
+     * Returns whether clones and fetches over SSH share one connection per
+     * origin host during a checkout.
+     */
+    @Exported
+    public boolean isSshMultiplexing() {
+        return sshMultiplexing;
+    }
+
+    @DataBoundSetter
+    public void setSshMultiplexing(final boolean sshMultiplexing) {
+        this.sshMultiplexing = sshMultiplexing;
+    }
+
+    /**
+     * Returns how existing clones are brought up to date, {@link UpdateStrategy#PULL}
+     * unless configured otherwise.
+     */
+    @Exported
+    public UpdateStrategy getUpdateStrategy() {
+        return updateStrategy == null ? UpdateStrategy.PULL : updateStrategy;
+    }
+
+    @DataBoundSetter
+    public void setUpdateStrategy(final UpdateStrategy updateStrategy) {
+        this.updateStrategy = updateStrategy;
+    }
+
+    /**
+     * Returns whether "git clean -fdx" runs in the repositories whose revision
+     * changed. Only applies to {@link UpdateStrategy#RESET}.
+     */
+    @Exported
+    public boolean isCleanChangedModules() {
+        return cleanChangedModules;
+    }
+
+    @DataBoundSetter
+    public void setCleanChangedModules(final boolean cleanChangedModules) {
+        this.cleanChangedModules = cleanChangedModules;
+    }
+
+    /**
+     * Returns whether new clones are git worktrees of one object store per
+     * origin and node, shared by the workspaces of all its executors.
+     * Worktrees are always updated by fetching into the store and detaching
+     * at the branch head.
+     */
+    @Exported
+    public boolean isSharedObjectStore() {
+        return sharedObjectStore;
+    }
+
+    @DataBoundSetter
+    public void setSharedObjectStore(final boolean sharedObjectStore) {
+        this.sharedObjectStore = sharedObjectStore;
+    }
+
+    /**
+     * Returns whether every build archives {@link #PINNED_MANIFEST}. Builds
+     * rebuilding a recorded state always do.
+     */
+    @Exported
+    public boolean isArchivePinnedManifest() {
+        return archivePinnedManifest;
+    }
+
+    @DataBoundSetter
+    public void setArchivePinnedManifest(final boolean archivePinnedManifest) {
+        this.archivePinnedManifest = archivePinnedManifest;
+    }
+
+    /**
+     * Returns whether the change log reports renamed files, instead of a
+     * deleted and an added file.
+     */
+    @Exported
+    public boolean isDetectRenames() {
+        return detectRenames;
+    }
+
+    @DataBoundSetter
+    public void setDetectRenames(final boolean detectRenames) {
+        this.detectRenames = detectRenames;
+    }
+
+    /**
+     * Returns whether the change log also reports files copied from a file
+     * modified in the same commit. Implies rename detection.
+     */
+    @Exported
+    public boolean isDetectCopies() {
+        return detectCopies;
+    }
+
+    @DataBoundSetter
+    public void setDetectCopies(final boolean detectCopies) {
+        this.detectCopies = detectCopies;
+    }
+
+    /**
+     * Returns the similarity index, in percent, above which a file counts as
+     * renamed or copied.
+     */
+    @Exported
+    public int getRenameSimilarity() {
+        return renameSimilarity > 0 ? renameSimilarity : ChangeLog.DEFAULT_RENAME_SIMILARITY;
+    }
+
+    @DataBoundSetter
+    public void setRenameSimilarity(final int renameSimilarity) {
+        this.renameSimilarity = Math.min(100, renameSimilarity);
+    }
+
+    /**
+     * Returns the maximum number of files of a commit compared for inexact
+     * renames and copies. Commits touching more files only get exact
+     * renames, which keeps huge commits from using a lot of CPU time.
+     */
+    @Exported
+    public int getRenameLimit() {
+        return renameLimit > 0 ? renameLimit : ChangeLog.DEFAULT_RENAME_LIMIT;
+    }
+
+    @DataBoundSetter
+    public void setRenameLimit(final int renameLimit) {
+        this.renameLimit = renameLimit;
+    }
+
+    /**
+     * Returns whether an empty workspace is first restored from the nearest
+     * snapshot of the job, and fresh workspaces are saved as snapshots, see
+     * {@link WorkspaceSnapshots}. Meant for ephemeral agents; not used with
+     * worktrees, which depend on the object store of their node.
+     */
+    @Exported
+    public boolean isWorkspaceSnapshots() {
+        return workspaceSnapshots;
+    }
+
+    @DataBoundSetter
+    public void setWorkspaceSnapshots(final boolean workspaceSnapshots) {
+        this.workspaceSnapshots = workspaceSnapshots;
+    }
+
+    /**
+     * Returns the number of repositories updated at once, by regular and
+     * pinned checkouts alike. The longest updates of previous builds start
+     * first, see {@link ModuleDurations}.
+     */
+    @Exported
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : 1;
+    }
+
+    @DataBoundSetter
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns whether the build log gets one line per repository instead
+     * of the output of every git command. Failed commands still print
+     * their full output.
+     */
+    @Exported
+    public boolean isQuietOutput() {
+        return quietOutput;
+    }
+
+    @DataBoundSetter
+    public void setQuietOutput(final boolean quietOutput) {
+        this.quietOutput = quietOutput;
+    }
+
+    private List<String> getRenameOptions() {
+        if (!detectRenames && !detectCopies) {
+            return Collections.emptyList();
+        }
+        return ChangeLog.renameOptions(detectCopies, getRenameSimilarity(), getRenameLimit());
+    }
+
     /**
      * Merge the provided environment with the <em>default</em> values of
      * the project parameters. The values from the provided environment
@@ -133,49 +409,286 @@ public class RepoScm extends SCM implements Serializable {
         EnvVars env = build.getEnvironment(listener);
         env = getEnvVars(env, job);
 
-        gitHelper = new GitHelper(launcher, env, listener.getLogger());
+        ProjectState pinnedState = getPinnedState(job, env.get(PINNED_BUILD));
+
+        CheckoutMetrics metrics = new CheckoutMetrics();
+        build.addAction(metrics);
+
+        gitHelper = new GitHelper(launcher, env, listener);
+        gitHelper.setTimeouts(getCloneTimeout(), getFetchTimeout(), getLocalTimeout());
+        gitHelper.setRetries(getNetworkRetries());
+        gitHelper.setMetrics(metrics);
+        gitHelper.setQuiet(quietOutput);
+        UpdateOptions updateOptions = new UpdateOptions(getUpdateStrategy(), cleanChangedModules);
+        ModuleDurations durations = ModuleDurations.load(job);
+        updateOptions.setDurations(durations);
+        Set<String> fastLane = getFastLane(build, pinnedState);
+        Computer computer = workspace.toComputer();
+        gitHelper.setConcurrencyLimits(computer == null ? "" : computer.getName(),
+                getDescriptor().getMaxConcurrentPerNode(), getDescriptor().getMaxConcurrentPerController());
+        if (getDescriptor().isAdaptiveConcurrency()) {
+            gitHelper.setAdaptiveConcurrency(getDescriptor().getMinConcurrentPerNode(),
+                    getDescriptor().getMaxConcurrentPerNode() > 0 ? getDescriptor().getMaxConcurrentPerNode()
+                            : AdaptiveLimit.DEFAULT_MAX);
+        }
+        if (sharedObjectStore) {
+            Node node = computer == null ? null : computer.getNode();
+            FilePath rootPath = node == null ? null : node.getRootPath();
+            if (rootPath != null) {
+                updateOptions.setObjectStoreRoot(rootPath.child(ObjectStore.STORES_DIR));
+            }
+        }
+
+        if (getDescriptor().isCloneBundles()) {
+            updateOptions.setBundleSource(new CloneBundles.Source(getDescriptor().getBundleRoot()));
+        }
 
         if (!workspace.exists()) {
             workspace.mkdirs();
         }
 
-        if (!checkoutCode(workspace, listener.getLogger())) {
-            throw new IOException("Could not checkout");
+        // keeps RepoMaintenance out of the workspace
+        WorkspaceLock workspaceLock = WorkspaceLock.forNode(computer == null ? "" : computer.getName(), workspace.getRemote());
+        workspaceLock.lock();
+        try {
+            if (sshMultiplexing) {
+                gitHelper.enableSshMultiplexing(workspace);
+            }
+            WorkspaceSnapshots snapshots = null;
+            boolean freshWorkspace = false;
+            if (workspaceSnapshots && !sharedObjectStore) {
+                snapshots = getDescriptor().getSnapshots();
+                freshWorkspace = !new FilePath(workspace, ".git").exists();
+                if (freshWorkspace) {
+                    restoreSnapshot(snapshots, job, workspace, listener.getLogger());
+                }
+            }
+            if (pinnedState != null) {
+                listener.getLogger().println("[repo] - checking out the state of build #" + env.get(PINNED_BUILD).trim());
+                checkoutPinned(workspace, pinnedState, updateOptions, fastLane, listener.getLogger());
+            } else if (!checkoutCode(build, workspace, updateOptions, fastLane, listener.getLogger())) {
+                throw new IOException("Could not checkout");
+            }
+            if (freshWorkspace) {
+                saveSnapshot(snapshots, job, workspace, listener.getLogger());
+            }
+        } finally {
+            gitHelper.close();
+            workspaceLock.unlock();
         }
 
         currentState.modules.put(currentState.project.getPath(), currentState.project);
         build.addAction(currentState);
+        if (pinnedState != null || archivePinnedManifest) {
+            archivePinnedManifest(build, launcher, workspace, listener);
+        }
         final Run previousBuild = build.getPreviousBuild();
         SCMRevisionState previousState = getLastState(previousBuild, currentState.getBranch());
 
         if (changelogFile != null) {
-            ChangeLog.saveChangeLog(currentState, previousState == SCMRevisionState.NONE ? null : (ProjectState) previousState, changelogFile, launcher, workspace, true);
+            ChangeLog.saveChangeLog(currentState, previousState == SCMRevisionState.NONE ? null : (ProjectState) previousState, changelogFile, launcher, workspace, true,
+                    getRenameOptions(), durations, metrics, quietOutput);
+        }
+        if (metrics.getUpdateMillis() > 0 || metrics.getChangeLogMillis() > 0) {
+            listener.getLogger().println("[repo] - checkout took " + (metrics.getUpdateMillis() / 1000) + "s, predicted "
+                    + (metrics.getPredictedUpdateMillis() / 1000) + "s; change log took "
+                    + (metrics.getChangeLogMillis() / 1000) + "s, predicted "
+                    + (metrics.getPredictedChangeLogMillis() / 1000) + "s; "
+                    + metrics.getGitLogBytes() / 1024 + " KB of git output logged, "
+                    + metrics.getSuppressedGitLogBytes() / 1024 + " KB summarized");
+        }
+        try {
+            durations.save(job);
+        } catch (IOException e) {
+            debug.warning("Could not save the module durations of " + job.getFullName() + ": " + e);
         }
     }
 
-    private boolean checkoutCode(FilePath workspace, final PrintStream logger) throws IOException, InterruptedException {
-        if (workspace.listDirectories().size() == 0) {
-            gitHelper.clone(workspace, repositoryUrl, branch);
-        } else {
-            gitHelper.checkoutBranchIfChange(workspace, branch);
-            gitHelper.pull(workspace, branch);
+    /**
+     * Archives {@link #PINNED_MANIFEST} through the artifact manager of the
+     * build, from the temporary directory of the workspace.
+     */
+    private void archivePinnedManifest(final Run<?, ?> build, final Launcher launcher, final FilePath workspace,
+                                       final TaskListener listener) throws IOException, InterruptedException {
+        final FilePath tmp = workspace.sibling(workspace.getName() + "@tmp");
+        tmp.mkdirs();
+        final FilePath pinnedManifest = tmp.child(PINNED_MANIFEST);
+        pinnedManifest.write(RepoHelper.getPinnedManifest(currentState), "UTF-8");
+        try {
+            build.pickArtifactManager().archive(tmp, launcher, listener instanceof BuildListener
+                    ? (BuildListener) listener : new StreamBuildListener(listener.getLogger(), Charset.defaultCharset()),
+                    Collections.singletonMap(PINNED_MANIFEST, PINNED_MANIFEST));
+        } finally {
+            pinnedManifest.delete();
         }
-        currentState = RepoHelper.getProjectState(workspace, false, gitHelper, logger);
-        Set<String> keys = currentState.modules.keySet();
-        for (String key : keys) {
-            ModuleState moduleState = currentState.modules.get(key);
-            FilePath moduleDir = new FilePath(workspace, moduleState.getPath());
-            if (moduleDir.listDirectories().size() == 0) {
-                gitHelper.clone(moduleDir, moduleState.getOrigin(), moduleState.getBranch());
-            } else {
-                gitHelper.checkoutBranchIfChange(moduleDir, moduleState.getBranch());
-                gitHelper.pull(moduleDir, moduleState.getBranch());
+    }
+
+    private void restoreSnapshot(final WorkspaceSnapshots snapshots, final Job<?, ?> job, final FilePath workspace,
+                                 final PrintStream logger) throws IOException, InterruptedException {
+        final ProjectState lastState = RepoMaintenance.getLastState(job);
+        final File snapshot = snapshots.find(WorkspaceSnapshots.group(job.getFullName()),
+                lastState == null ? null : WorkspaceSnapshots.key(lastState));
+        if (snapshot == null) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            snapshots.restore(snapshot, workspace);
+            logger.println("[repo] - restored workspace snapshot " + snapshot.getName() + " ("
+                    + snapshot.length() / (1024 * 1024) + " MB) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            logger.println("[repo] - could not restore workspace snapshot " + snapshot.getName() + ": " + e);
+            workspace.deleteContents();
+        }
+    }
+
+    /**
+     * Saves a snapshot of the repositories right after the checkout, while
+     * the workspace is still locked and before any build step ran in it. A
+     * failed snapshot does not fail the build.
+     */
+    private void saveSnapshot(final WorkspaceSnapshots snapshots, final Job<?, ?> job, final FilePath workspace,
+                              final PrintStream logger) throws InterruptedException {
+        final String group = WorkspaceSnapshots.group(job.getFullName());
+        final ProjectState state = new ProjectState();
+        state.modules.putAll(currentState.modules);
+        state.modules.put(currentState.project.getPath(), currentState.project);
+        final String key = WorkspaceSnapshots.key(state);
+        if (!snapshots.isDue(group, key)) {
+            return;
+        }
+        final WorkspaceSnapshots.TrackedContent content = new WorkspaceSnapshots.TrackedContent();
+        final long start = System.currentTimeMillis();
+        try {
+            for (ModuleState module : state.modules.values()) {
+                final String path = module == currentState.project ? "" : module.getPath();
+                content.add(path, gitHelper.listTrackedFiles(path.isEmpty() ? workspace : workspace.child(path)));
             }
+            final long size = snapshots.save(group, key, workspace, content);
+            logger.println("[repo] - saved workspace snapshot " + key + " (" + size / (1024 * 1024) + " MB) in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            logger.println("[repo] - could not save workspace snapshot " + key + ": " + e);
+        } catch (RuntimeException e) {
+            logger.println("[repo] - could not save workspace snapshot " + key + ": " + e.getMessage());
         }
-        currentState = RepoHelper.getProjectState(workspace, true, gitHelper, logger);
+    }
+
+    private boolean checkoutCode(Run<?, ?> build, FilePath workspace, UpdateOptions updateOptions,
+                                 final Set<String> fastLane, final PrintStream logger) throws IOException, InterruptedException {
+        final Map<String, String> revisions = new HashMap<String, String>();
+        // the build after a failed checkout skips the repositories already
+        // done, except the ones pushes were notified for since
+        final CoalescedPushes pushes = build.getAction(CoalescedPushes.class);
+        updateOptions.setCheckpoint(workspace.sibling(workspace.getName() + "@tmp").child(Checkpoint.FILE),
+                build.getNumber(),
+                pushes == null ? Collections.<String>emptySet() : new HashSet<String>(pushes.getModules()));
+        final ModuleState project = ModuleState.constructCachedInstance("./", repositoryUrl, branch, null);
+        addRevisions(revisions, UpdateModules.update(gitHelper, workspace, Collections.singletonList(project),
+                updateOptions, 1, fastLane));
+
+        currentState = RepoHelper.getProjectState(workspace, false, gitHelper, logger);
+        addRevisions(revisions, UpdateModules.update(gitHelper, workspace,
+                new ArrayList<ModuleState>(currentState.modules.values()), updateOptions, getParallelism(), fastLane));
+        currentState = RepoHelper.getProjectState(workspace, true, gitHelper, logger, revisions);
+        updateOptions.clearCheckpoint();
         return true;
     }
 
+    /**
+     * Checks the project and its modules out at the revisions recorded by a
+     * previous build: the project first, since the modules live inside it,
+     * then the modules several at a time.
+     */
+    private void checkoutPinned(FilePath workspace, ProjectState pinnedState, UpdateOptions updateOptions,
+                                final Set<String> fastLane, final PrintStream logger) throws IOException, InterruptedException {
+        final Map<String, String> revisions = new HashMap<String, String>();
+        final ModuleState project = pinnedState.project != null ? pinnedState.project : pinnedState.modules.get("./");
+        if (project == null) {
+            throw new IOException("[repo] - the recorded state has no project.");
+        }
+        addRevisions(revisions, UpdateModules.pin(gitHelper, workspace, Collections.singletonList(project),
+                updateOptions, 1, fastLane));
+
+        final List<ModuleState> modules = new ArrayList<ModuleState>();
+        for (ModuleState module : pinnedState.modules.values()) {
+            if (!"./".equals(module.getPath())) {
+                modules.add(module);
+            }
+        }
+        addRevisions(revisions, UpdateModules.pin(gitHelper, workspace, modules, updateOptions, getParallelism(), fastLane));
+        currentState = RepoHelper.getProjectState(workspace, true, gitHelper, logger, revisions);
+    }
+
+    /**
+     * Returns the paths of the repositories expected to need no work: for
+     * a pinned build, the ones the latest build recorded at the same
+     * revision; for a build started by push notifications only, the ones
+     * none of the pushes went to.
+     */
+    private static Set<String> getFastLane(final Run<?, ?> build, final ProjectState pinnedState) {
+        final Set<String> fastLane = new HashSet<String>();
+        final ProjectState lastState = RepoMaintenance.getLastState(build.getParent());
+        if (lastState == null) {
+            return fastLane;
+        }
+        if (pinnedState != null) {
+            for (ModuleState module : pinnedState.modules.values()) {
+                final ModuleState last = lastState.modules.get(module.getPath());
+                if (last != null && module.getRevision() != null && module.getRevision().equals(last.getRevision())) {
+                    fastLane.add(module.getPath());
+                }
+            }
+            return fastLane;
+        }
+        final CoalescedPushes pushes = build.getAction(CoalescedPushes.class);
+        if (pushes == null) {
+            return fastLane;
+        }
+        for (Cause cause : build.getCauses()) {
+            if (!(cause instanceof RepoPushNotification.PushCause)) {
+                return fastLane;
+            }
+        }
+        fastLane.addAll(lastState.modules.keySet());
+        fastLane.removeAll(pushes.getModules());
+        return fastLane;
+    }
+
+    /**
+     * Returns the state recorded by the build named by {@link #PINNED_BUILD},
+     * or null when the parameter is not set.
+     */
+    @CheckForNull
+    private static ProjectState getPinnedState(final Job<?, ?> job, final String pinnedBuild) throws IOException {
+        if (StringUtils.isBlank(pinnedBuild)) {
+            return null;
+        }
+        final int number;
+        try {
+            number = Integer.parseInt(StringUtils.removeStart(pinnedBuild.trim(), "#"));
+        } catch (NumberFormatException e) {
+            throw new IOException("[repo] - " + PINNED_BUILD + " must be a build number, not '" + pinnedBuild + "'.");
+        }
+        final Run<?, ?> build = job.getBuildByNumber(number);
+        if (build == null) {
+            throw new IOException("[repo] - build #" + number + " of " + PINNED_BUILD + " does not exist.");
+        }
+        final ProjectState state = build.getAction(ProjectState.class);
+        if (state == null) {
+            throw new IOException("[repo] - build #" + number + " has no recorded Gradle Repo state.");
+        }
+        return state;
+    }
+
+    private static void addRevisions(final Map<String, String> revisions, final List<UpdateResult> results) {
+        for (UpdateResult result : results) {
+            if (result.getRevision() != null) {
+                revisions.put(result.getPath(), result.getRevision());
+            }
+        }
+    }
+
     @Nonnull
     private SCMRevisionState getLastState(final Run<?, ?> lastBuild, final String expandedBranch) {
         if (lastBuild == null) {
@@ -224,6 +737,23 @@ public class RepoScm extends SCM implements Serializable {
     @Extension
     public static class DescriptorImpl extends SCMDescriptor<RepoScm> {
 
+        private static final int DEFAULT_PUSH_COALESCE_WINDOW = 10;
+        private static final int DEFAULT_MAX_PUSH_LATENCY = 120;
+        private static final int DEFAULT_SNAPSHOT_BUDGET = 10240;
+
+        private int maxConcurrentPerNode;
+        private int maxConcurrentPerController;
+        private boolean adaptiveConcurrency;
+        private int minConcurrentPerNode = 1;
+        private boolean workspaceMaintenance;
+        private int pushCoalesceWindow = DEFAULT_PUSH_COALESCE_WINDOW;
+        private int maxPushLatency = DEFAULT_MAX_PUSH_LATENCY;
+        private Secret pushToken;
+        private String snapshotDirectory;
+        private boolean cloneBundles;
+        private String bundleDirectory;
+        private int snapshotBudget = DEFAULT_SNAPSHOT_BUDGET;
+
         /**
          * Call the superclass constructor and load our configuration from the
          * file system.
@@ -242,6 +772,177 @@ public class RepoScm extends SCM implements Serializable {
         public boolean isApplicable(final Job project) {
             return true;
         }
+
+        public UpdateStrategy[] getUpdateStrategies() {
+            return UpdateStrategy.values();
+        }
+
+        @Override
+        public boolean configure(final StaplerRequest req, final JSONObject json) throws FormException {
+            req.bindJSON(this, json);
+            save();
+            return true;
+        }
+
+        /**
+         * Returns the maximum number of concurrent clones and fetches against
+         * one origin host from a single node. 0 means no limit.
+         */
+        public int getMaxConcurrentPerNode() {
+            return maxConcurrentPerNode;
+        }
+
+        public void setMaxConcurrentPerNode(final int maxConcurrentPerNode) {
+            this.maxConcurrentPerNode = Math.max(0, maxConcurrentPerNode);
+        }
+
+        /**
+         * Returns the maximum number of concurrent clones and fetches against
+         * one origin host from all nodes together. 0 means no limit.
+         */
+        public int getMaxConcurrentPerController() {
+            return maxConcurrentPerController;
+        }
+
+        public void setMaxConcurrentPerController(final int maxConcurrentPerController) {
+            this.maxConcurrentPerController = Math.max(0, maxConcurrentPerController);
+        }
+
+        /**
+         * Returns whether the number of concurrent clones and fetches from a
+         * node against one origin host follows how they go, between
+         * {@link #getMinConcurrentPerNode()} and
+         * {@link #getMaxConcurrentPerNode()}, see {@link AdaptiveLimit}.
+         */
+        public boolean isAdaptiveConcurrency() {
+            return adaptiveConcurrency;
+        }
+
+        public void setAdaptiveConcurrency(final boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+        }
+
+        /**
+         * Returns the lowest adaptive number of concurrent clones and
+         * fetches from a node against one origin host.
+         */
+        public int getMinConcurrentPerNode() {
+            return minConcurrentPerNode;
+        }
+
+        public void setMinConcurrentPerNode(final int minConcurrentPerNode) {
+            this.minConcurrentPerNode = Math.max(1, minConcurrentPerNode);
+        }
+
+        /**
+         * Returns whether {@link RepoMaintenance} runs daily over the
+         * workspaces of Gradle Repo jobs.
+         */
+        public boolean isWorkspaceMaintenance() {
+            return workspaceMaintenance;
+        }
+
+        public void setWorkspaceMaintenance(final boolean workspaceMaintenance) {
+            this.workspaceMaintenance = workspaceMaintenance;
+        }
+
+        /**
+         * Returns how long, in seconds, a push notification waits for more
+         * pushes to the modules of the same job before its build is
+         * scheduled. Doubles with every further push. 0 schedules right
+         * away.
+         */
+        public int getPushCoalesceWindow() {
+            return pushCoalesceWindow;
+        }
+
+        public void setPushCoalesceWindow(final int pushCoalesceWindow) {
+            this.pushCoalesceWindow = Math.max(0, pushCoalesceWindow);
+        }
+
+        /**
+         * Returns the longest time, in seconds, a build triggered by push
+         * notifications is held back after the first one.
+         */
+        public int getMaxPushLatency() {
+            return maxPushLatency;
+        }
+
+        public void setMaxPushLatency(final int maxPushLatency) {
+            this.maxPushLatency = Math.max(0, maxPushLatency);
+        }
+
+        /**
+         * Returns the token push notifications must carry, null when they
+         * need none and are only checked against the branch heads, see
+         * {@link RepoPushNotification}.
+         */
+        public Secret getPushToken() {
+            return pushToken;
+        }
+
+        public void setPushToken(final Secret pushToken) {
+            this.pushToken = pushToken == null || pushToken.getPlainText().isEmpty() ? null : pushToken;
+        }
+
+        /**
+         * Returns the directory of the workspace snapshots on the controller,
+         * empty for {@link WorkspaceSnapshots#SNAPSHOTS_DIR} in the Jenkins
+         * home.
+         */
+        public String getSnapshotDirectory() {
+            return Util.fixNull(snapshotDirectory);
+        }
+
+        public void setSnapshotDirectory(final String snapshotDirectory) {
+            this.snapshotDirectory = Util.fixEmptyAndTrim(snapshotDirectory);
+        }
+
+        /**
+         * Returns the maximum size of the workspace snapshots, in megabytes.
+         */
+        public int getSnapshotBudget() {
+            return snapshotBudget;
+        }
+
+        public void setSnapshotBudget(final int snapshotBudget) {
+            this.snapshotBudget = Math.max(0, snapshotBudget);
+        }
+
+        /**
+         * Returns whether new clones are seeded from the git bundles kept by
+         * {@link CloneBundles}.
+         */
+        public boolean isCloneBundles() {
+            return cloneBundles;
+        }
+
+        public void setCloneBundles(final boolean cloneBundles) {
+            this.cloneBundles = cloneBundles;
+        }
+
+        /**
+         * Returns the directory of the clone bundles on the controller,
+         * empty for {@link CloneBundles#BUNDLES_DIR} in the Jenkins home.
+         */
+        public String getBundleDirectory() {
+            return Util.fixNull(bundleDirectory);
+        }
+
+        public void setBundleDirectory(final String bundleDirectory) {
+            this.bundleDirectory = Util.fixEmptyAndTrim(bundleDirectory);
+        }
+
+        File getBundleRoot() {
+            return bundleDirectory != null ? new File(bundleDirectory)
+                    : new File(Jenkins.getActiveInstance().getRootDir(), CloneBundles.BUNDLES_DIR);
+        }
+
+        WorkspaceSnapshots getSnapshots() {
+            final File root = snapshotDirectory != null ? new File(snapshotDirectory)
+                    : new File(Jenkins.getActiveInstance().getRootDir(), WorkspaceSnapshots.SNAPSHOTS_DIR);
+            return new WorkspaceSnapshots(root, snapshotBudget * 1024L * 1024L);
+        }
     }
 
 }
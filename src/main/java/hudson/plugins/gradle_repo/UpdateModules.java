@@ -0,0 +1,465 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.NullStream;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Clones or updates a batch of repositories of a workspace, the longest
+ * first according to their recorded durations. The whole batch runs as a
+ * single call on the node of the workspace, so deciding what to do and
+ * running git costs one remoting round trip rather than one per command.
+ * Only network commands call back to the controller, to take a slot of the
+ * controller-wide concurrency limit, and clones seeded from a bundle to
+ * copy it.
+ */
+final class UpdateModules extends MasterToSlaveFileCallable<UpdateModules.Batch> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GitHelper git;
+    private final List<ModuleState> modules;
+    private final UpdateOptions options;
+    private final GitBundles.BundleSource bundleSource;
+    private final boolean pinned;
+    private final int parallelism;
+    private final Set<String> fastLane;
+
+    private UpdateModules(GitHelper git, List<ModuleState> modules, UpdateOptions options,
+                          GitBundles.BundleSource bundleSource, boolean pinned, int parallelism, Set<String> fastLane) {
+        this.git = git;
+        this.modules = modules;
+        this.options = options;
+        this.bundleSource = bundleSource;
+        this.pinned = pinned;
+        this.parallelism = parallelism;
+        this.fastLane = fastLane;
+    }
+
+    /**
+     * Clones or updates the given repositories of the workspace.
+     *
+     * @param modules
+     *            The repositories, by path relative to the workspace ("./"
+     *            for the project itself)
+     * @param parallelism
+     *            The number of repositories worked on at once
+     * @param fastLane
+     *            The paths of the repositories expected to be up to date
+     *            already, updated after all the others started
+     * @return one result per repository, in order
+     */
+    static List<UpdateResult> update(GitHelper git, FilePath workspace, List<ModuleState> modules,
+                                     UpdateOptions options, int parallelism, Set<String> fastLane)
+            throws IOException, InterruptedException {
+        return runBatch(git, workspace, modules, options, false, parallelism, fastLane);
+    }
+
+    /**
+     * Checks the given repositories of the workspace out at their recorded
+     * revision, detached, several at a time. Only the missing revisions are
+     * fetched, by SHA; repositories already at their revision are left
+     * alone. The strategy, cleaning and checkpoint of the options do not
+     * apply.
+     *
+     * @param modules
+     *            The repositories with the revision to check out
+     * @param parallelism
+     *            The number of repositories worked on at once
+     * @param fastLane
+     *            The paths of the repositories expected to be at their
+     *            revision already, updated after all the others started
+     * @return one result per repository, in order
+     */
+    static List<UpdateResult> pin(GitHelper git, FilePath workspace, List<ModuleState> modules,
+                                  UpdateOptions options, int parallelism, Set<String> fastLane)
+            throws IOException, InterruptedException {
+        return runBatch(git, workspace, modules, options, true, parallelism, fastLane);
+    }
+
+    private static List<UpdateResult> runBatch(GitHelper git, FilePath workspace, List<ModuleState> modules,
+                                               UpdateOptions options, boolean pinned, int parallelism,
+                                               Set<String> fastLane) throws IOException, InterruptedException {
+        Batch batch;
+        if (git.isDecorated()) {
+            batch = new UpdateModules(git.copy(null), new ArrayList<ModuleState>(modules), options,
+                    options.getBundleSource(), pinned, parallelism, new HashSet<String>(fastLane)).run(workspace);
+        } else {
+            VirtualChannel channel = workspace.getChannel();
+            GitBundles.BundleSource bundleSource = options.getBundleSource();
+            batch = workspace.act(new UpdateModules(git.copy(channel), new ArrayList<ModuleState>(modules), options,
+                    bundleSource == null ? null : channel.export(GitBundles.BundleSource.class, bundleSource),
+                    pinned, parallelism, new HashSet<String>(fastLane)));
+        }
+        git.addBatch(batch.metrics, batch.sshDestinations);
+        if (git.getOptions().isQuiet()) {
+            for (UpdateResult result : batch.results) {
+                git.getLogger().println("[repo] - " + result);
+            }
+        }
+        final ModuleDurations durations = options.getDurations();
+        if (durations != null) {
+            durations.record(batch.results);
+            git.getMetrics().recordBatch(batch.millis, batch.predictedMillis, batch.unpredicted);
+            if (batch.results.size() > 1) {
+                git.getLogger().println("[repo] - updated " + batch.results.size() + " repositories in "
+                        + (batch.millis / 1000) + "s, predicted " + (batch.predictedMillis / 1000) + "s"
+                        + (batch.unpredicted > 0 ? " (" + batch.unpredicted + " without history)" : "")
+                        + ", " + batch.fastLane + " in the fast lane");
+            }
+        }
+        return batch.results;
+    }
+
+    public Batch invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        return run(new FilePath(workspace));
+    }
+
+    /**
+     * Updates the repositories, on the node or from the controller through
+     * a decorated launcher. The checkpoint file is only used on its node.
+     */
+    private Batch run(final FilePath root) throws IOException, InterruptedException {
+        final Batch batch = new Batch();
+        final List<Callable<UpdateResult>> tasks = new ArrayList<Callable<UpdateResult>>(modules.size());
+        final long[] priorities = new long[modules.size()];
+        final boolean[] fast = new boolean[modules.size()];
+        final List<Long> predicted = new ArrayList<Long>(modules.size());
+        final FilePath checkpointFile = options.getCheckpoint();
+        final Checkpoint checkpoint = pinned || checkpointFile == null || checkpointFile.isRemote() ? null
+                : Checkpoint.open(new File(checkpointFile.getRemote()), options.getCheckpointBuild());
+        final ModuleDurations durations = options.getDurations();
+        for (int i = 0; i < modules.size(); i++) {
+            final ModuleState module = modules.get(i);
+            final FilePath moduleDir = "./".equals(module.getPath()) ? root : new FilePath(root, module.getPath());
+            tasks.add(new Callable<UpdateResult>() {
+                public UpdateResult call() throws Exception {
+                    if (pinned) {
+                        return pinModule(moduleDir, module);
+                    }
+                    if (checkpoint == null) {
+                        return updateModule(moduleDir, module);
+                    }
+                    return resumeModule(moduleDir, module, checkpoint);
+                }
+            });
+            final boolean cloning = !moduleDir.exists() || moduleDir.listDirectories().size() == 0;
+            final long millis = durations == null ? ModuleDurations.UNKNOWN : durations.predict(module.getPath(), cloning);
+            fast[i] = !cloning && (fastLane.contains(module.getPath())
+                    || checkpoint != null && !options.getCheckpointExcluded().contains(module.getPath())
+                    && checkpoint.getRevision(module) != null);
+            // repositories never measured are likely new and go first
+            priorities[i] = millis == ModuleDurations.UNKNOWN ? Long.MAX_VALUE : millis;
+            if (millis == ModuleDurations.UNKNOWN) {
+                batch.unpredicted++;
+            } else {
+                predicted.add(millis);
+            }
+            if (fast[i]) {
+                batch.fastLane++;
+            }
+        }
+        final long[] expected = new long[predicted.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = predicted.get(i);
+        }
+        batch.predictedMillis = ModuleDurations.makespan(expected, Math.min(Math.max(1, parallelism), modules.size()));
+
+        final long start = System.currentTimeMillis();
+        batch.results.addAll(ParallelRunner.run(tasks, parallelism, priorities, fast));
+        batch.millis = System.currentTimeMillis() - start;
+        batch.metrics = git.getMetrics();
+        batch.sshDestinations.putAll(git.getSshDestinations());
+        return batch;
+    }
+
+    /**
+     * Clones a repository, or brings an existing clone to the head of its
+     * branch, checking the branch out first when needed.
+     */
+    private UpdateResult updateModule(FilePath moduleDir, ModuleState module) throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final String url = module.getOrigin();
+        final String branch = module.getBranch();
+        if (!moduleDir.exists() || moduleDir.listDirectories().size() == 0) {
+            clone(moduleDir, url, branch, module.getSparsePaths());
+            return new UpdateResult(module.getPath(),
+                    options.getObjectStoreRoot() != null ? UpdateResult.Action.WORKTREE_ADDED : UpdateResult.Action.CLONED,
+                    null, git.getRevision(moduleDir), false, System.currentTimeMillis() - start);
+        }
+        final String previousRevision = git.getRevision(moduleDir);
+        updateSparsePaths(moduleDir, url, module.getSparsePaths());
+        if (Worktrees.isWorktree(moduleDir)) {
+            final String revision = Worktrees.update(git, moduleDir, url, branch, options.isClean());
+            return new UpdateResult(module.getPath(), UpdateResult.Action.WORKTREE_UPDATED, previousRevision, revision,
+                    false, System.currentTimeMillis() - start);
+        }
+        final boolean branchSwitched = git.checkoutBranchIfChange(moduleDir, url, branch);
+        if (options.getStrategy() == UpdateStrategy.RESET) {
+            final String revision = git.fetchAndReset(moduleDir, url, branch, options.isClean());
+            return new UpdateResult(module.getPath(), UpdateResult.Action.RESET, previousRevision, revision,
+                    branchSwitched, System.currentTimeMillis() - start);
+        }
+        git.pull(moduleDir, url, branch);
+        return new UpdateResult(module.getPath(), UpdateResult.Action.PULLED, previousRevision, git.getRevision(moduleDir),
+                branchSwitched, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Skips a repository the checkpoint lists at its current HEAD, read
+     * from its files; updates it and adds it to the checkpoint otherwise.
+     */
+    private UpdateResult resumeModule(FilePath moduleDir, ModuleState module, Checkpoint checkpoint)
+            throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final String recorded = options.getCheckpointExcluded().contains(module.getPath()) ? null
+                : checkpoint.getRevision(module);
+        if (recorded != null && moduleDir.exists()
+                && recorded.equals(git.readRef(moduleDir, GitHelper.RefQuery.REVISION, null))) {
+            return new UpdateResult(module.getPath(), UpdateResult.Action.RESUMED, recorded, recorded, false,
+                    System.currentTimeMillis() - start);
+        }
+        final UpdateResult result = updateModule(moduleDir, module);
+        try {
+            checkpoint.add(module, result.getRevision() != null ? result.getRevision() : git.getRevision(moduleDir));
+        } catch (IOException e) {
+            git.getLogger().println("[repo] - fail to record [" + module.getPath() + "] in the checkpoint: " + e);
+        }
+        return result;
+    }
+
+    /**
+     * Checks a repository out at its recorded revision, cloning it first
+     * when needed.
+     */
+    private UpdateResult pinModule(FilePath moduleDir, ModuleState module) throws IOException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final String revision = module.getRevision();
+        if (revision == null) {
+            throw new RuntimeException("[repo] - no revision recorded for [" + module.getPath() + "].");
+        }
+        String previousRevision = null;
+        if (!moduleDir.exists() || moduleDir.listDirectories().size() == 0) {
+            clone(moduleDir, module.getOrigin(), module.getBranch(), module.getSparsePaths());
+        } else {
+            previousRevision = git.getRevision(moduleDir);
+            updateSparsePaths(moduleDir, module.getOrigin(), module.getSparsePaths());
+        }
+        if (revision.equals(previousRevision)) {
+            return new UpdateResult(module.getPath(), UpdateResult.Action.PINNED, previousRevision, revision,
+                    false, System.currentTimeMillis() - start);
+        }
+        if (!hasCommit(moduleDir, revision)) {
+            fetchRevision(moduleDir, module.getOrigin(), revision);
+        }
+        List<String> commands = new ArrayList<String>(5);
+        commands.add("git");
+        commands.add("checkout");
+        commands.add("-f");
+        commands.add("--detach");
+        commands.add(revision);
+        git.execute(moduleDir, commands);
+        return new UpdateResult(module.getPath(), UpdateResult.Action.PINNED, previousRevision, revision,
+                false, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Clones a repository: as a worktree of the object store of its origin
+     * when there are stores, else seeded from the bundle of its origin when
+     * there is one, else from its origin.
+     */
+    private void clone(FilePath moduleDir, String repositoryUrl, String branch, List<String> sparsePaths) {
+        if (options.getObjectStoreRoot() == null) {
+            if (bundleSource != null && sparsePaths.isEmpty()) {
+                git.mkdirs(moduleDir);
+                if (GitBundles.cloneFromBundle(git, bundleSource, moduleDir, repositoryUrl, branch)) {
+                    return;
+                }
+            }
+            git.clone(moduleDir, repositoryUrl, branch, sparsePaths);
+            return;
+        }
+        git.mkdirs(moduleDir);
+        Worktrees.add(git, options.getObjectStoreRoot(), moduleDir, repositoryUrl, branch, sparsePaths);
+        if (!sparsePaths.isEmpty()) {
+            git.setSparsePaths(moduleDir, repositoryUrl, sparsePaths);
+            List<String> commands = new ArrayList<String>(3);
+            commands.add("git");
+            commands.add("reset");
+            commands.add("--hard");
+            git.execute(moduleDir, commands);
+        }
+    }
+
+    private boolean hasCommit(FilePath moduleDir, String revision) {
+        List<String> commands = new ArrayList<String>(4);
+        commands.add("git");
+        commands.add("cat-file");
+        commands.add("-e");
+        commands.add(revision + "^{commit}");
+        try {
+            git.execute(moduleDir, commands, new NullStream(), GitHelper.Operation.LOCAL, null, null);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fetches a single revision by SHA. Servers that refuse unadvertised
+     * objects get a full fetch instead. Worktrees fetch into their shared
+     * object store.
+     */
+    private void fetchRevision(FilePath moduleDir, String repositoryUrl, String revision) {
+        final boolean worktree = Worktrees.isWorktree(moduleDir);
+        final FilePath dir = worktree ? Worktrees.getObjectStore(moduleDir) : moduleDir;
+        final ObjectStore lock = worktree ? Worktrees.lock(git, dir) : null;
+        try {
+            List<String> commands = new ArrayList<String>(4);
+            commands.add("git");
+            commands.add("fetch");
+            commands.add("origin");
+            commands.add(revision);
+            try {
+                git.execute(dir, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+            } catch (RuntimeException e) {
+                git.getLogger().println("[repo] - fail to fetch " + revision + " alone, fetching all branches.");
+                commands.remove(revision);
+                git.execute(dir, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+            }
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes an existing clone follow the sparse paths of the manifest:
+     * they are set when they differ from the ones in
+     * ".git/info/sparse-checkout", and sparse checkout is turned off when
+     * they were removed.
+     */
+    private void updateSparsePaths(FilePath moduleDir, String repositoryUrl, List<String> sparsePaths)
+            throws IOException, InterruptedException {
+        final Set<String> current = moduleDir.act(new ReadSparsePaths(false));
+        if (!sparsePaths.isEmpty()) {
+            final Set<String> wanted = new HashSet<String>();
+            for (String path : sparsePaths) {
+                wanted.add(trimSlashes(path));
+            }
+            if (!wanted.equals(current)) {
+                git.setSparsePaths(moduleDir, repositoryUrl, sparsePaths);
+            }
+            return;
+        }
+        if (current == null) {
+            return;
+        }
+        List<String> commands = new ArrayList<String>(3);
+        commands.add("git");
+        commands.add("sparse-checkout");
+        commands.add("disable");
+        git.execute(moduleDir, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+        // git keeps the file, remove it so this is done only once
+        moduleDir.act(new ReadSparsePaths(true));
+    }
+
+    private static String trimSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    /**
+     * What a batch of updates returns: its results, and the metrics and SSH
+     * destinations gathered on the node.
+     */
+    static final class Batch implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<UpdateResult> results = new ArrayList<UpdateResult>();
+        private CheckoutMetrics metrics;
+        private long millis;
+        private long predictedMillis;
+        private int unpredicted;
+        private int fastLane;
+        private final Map<String, List<String>> sshDestinations = new LinkedHashMap<String, List<String>>();
+    }
+
+    /**
+     * Reads the directories checked out in full from the cone mode patterns
+     * of ".git/info/sparse-checkout": every "/dir/" pattern but the parents,
+     * which are followed by "!/dir/&#42;/". Returns null when the file does
+     * not exist; patterns not written in cone mode give directories no
+     * manifest asks for, so the paths are set again.
+     */
+    private static class ReadSparsePaths extends MasterToSlaveFileCallable<Set<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean delete;
+
+        /**
+         * @param delete
+         *            Whether to delete the file once read
+         */
+        ReadSparsePaths(boolean delete) {
+            this.delete = delete;
+        }
+
+        public Set<String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final File gitDir = GitRefReader.gitDir(dir);
+            final File file = gitDir == null ? null : new File(gitDir, "info/sparse-checkout");
+            if (file == null || !file.isFile()) {
+                return null;
+            }
+            final Set<String> dirs = new HashSet<String>();
+            final Set<String> parents = new HashSet<String>();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.startsWith("!/") && line.endsWith("/*/")) {
+                        parents.add(trimSlashes(line.substring(1, line.length() - 2)));
+                    } else if (line.startsWith("/") && line.endsWith("/") && line.length() > 1) {
+                        dirs.add(trimSlashes(line));
+                    } else if (!line.isEmpty() && !line.startsWith("#") && !"/*".equals(line)) {
+                        // not cone mode, never equal to the manifest
+                        dirs.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            dirs.removeAll(parents);
+            if (delete && !file.delete()) {
+                throw new IOException("[repo] - Could not delete " + file);
+            }
+            return dirs;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * How {@link UpdateModules} brings the repositories of a checkout up to
+ * date. Sent along with every batch to the node of the workspace.
+ */
+final class UpdateOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UpdateStrategy strategy;
+    private final boolean clean;
+    private ModuleDurations durations;
+    private FilePath objectStoreRoot;
+    // exported to the node by UpdateModules rather than serialized
+    private transient GitBundles.BundleSource bundleSource;
+    private FilePath checkpoint;
+    private int checkpointBuild;
+    private Set<String> checkpointExcluded = Collections.emptySet();
+
+    /**
+     * @param strategy
+     *            How existing clones are brought to the head of their branch
+     * @param clean
+     *            Run "git clean -fdx" in repositories whose revision moved,
+     *            unless they are pulled
+     */
+    UpdateOptions(UpdateStrategy strategy, boolean clean) {
+        this.strategy = strategy;
+        this.clean = clean;
+    }
+
+    UpdateStrategy getStrategy() {
+        return strategy;
+    }
+
+    boolean isClean() {
+        return clean;
+    }
+
+    ModuleDurations getDurations() {
+        return durations;
+    }
+
+    /**
+     * Records the duration of every update, and starts the longest updates
+     * of a batch first, see {@link ModuleDurations}.
+     *
+     * @param durations
+     *            The durations of the job, null to run batches in order
+     */
+    void setDurations(ModuleDurations durations) {
+        this.durations = durations;
+    }
+
+    FilePath getObjectStoreRoot() {
+        return objectStoreRoot;
+    }
+
+    /**
+     * Makes new clones git worktrees of a shared object store per origin,
+     * kept in the given directory of the node, instead of full clones, see
+     * {@link Worktrees}.
+     *
+     * @param objectStoreRoot
+     *            The directory holding the stores, null for plain clones
+     */
+    void setObjectStoreRoot(FilePath objectStoreRoot) {
+        this.objectStoreRoot = objectStoreRoot;
+    }
+
+    GitBundles.BundleSource getBundleSource() {
+        return bundleSource;
+    }
+
+    /**
+     * Seeds new full clones from the git bundles of their origin, see
+     * {@link CloneBundles}, then fetches the rest from the origin.
+     *
+     * @param bundleSource
+     *            Where the bundles come from, null to always clone from the
+     *            origin
+     */
+    void setBundleSource(GitBundles.BundleSource bundleSource) {
+        this.bundleSource = bundleSource;
+    }
+
+    FilePath getCheckpoint() {
+        return checkpoint;
+    }
+
+    int getCheckpointBuild() {
+        return checkpointBuild;
+    }
+
+    Set<String> getCheckpointExcluded() {
+        return checkpointExcluded;
+    }
+
+    /**
+     * Records every repository brought up to date in the given file of the
+     * node, and skips the repositories the previous build already listed at
+     * their recorded revision, see {@link Checkpoint}.
+     *
+     * @param checkpoint
+     *            The checkpoint file, null to update every repository
+     * @param build
+     *            The number of the build
+     * @param excluded
+     *            The paths of the repositories never skipped, such as the
+     *            ones a push notification named
+     */
+    void setCheckpoint(FilePath checkpoint, int build, Set<String> excluded) {
+        this.checkpoint = checkpoint;
+        this.checkpointBuild = build;
+        this.checkpointExcluded = new HashSet<String>(excluded);
+    }
+
+    /**
+     * Deletes the checkpoint file once the checkout is complete.
+     */
+    void clearCheckpoint() throws IOException, InterruptedException {
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package hudson.plugins.gradle_repo;
+
+import java.io.Serializable;
+
+/**
+ * What bringing one repository of the workspace up to date did, as reported
+ * back from the node of the workspace.
+ */
+public final class UpdateResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The action taken for a repository. RESUMED repositories were already
+     * brought up to date by an interrupted checkout, see {@link Checkpoint}.
+     */
+    public enum Action {
+        CLONED, PULLED, RESET, WORKTREE_ADDED, WORKTREE_UPDATED, PINNED, RESUMED
+    }
+
+    private final String path;
+    private final Action action;
+    private final String previousRevision;
+    private final String revision;
+    private final boolean branchSwitched;
+    private final long millis;
+
+    UpdateResult(final String path, final Action action, final String previousRevision, final String revision,
+                 final boolean branchSwitched, final long millis) {
+        this.path = path;
+        this.action = action;
+        this.previousRevision = previousRevision;
+        this.revision = revision;
+        this.branchSwitched = branchSwitched;
+        this.millis = millis;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * Returns the revision before the update, null for a new clone.
+     */
+    public String getPreviousRevision() {
+        return previousRevision;
+    }
+
+    /**
+     * Returns the revision after the update, null when it was not read.
+     */
+    public String getRevision() {
+        return revision;
+    }
+
+    /**
+     * Returns whether another branch had to be checked out first.
+     */
+    public boolean isBranchSwitched() {
+        return branchSwitched;
+    }
+
+    /**
+     * Returns the time the update took, in milliseconds.
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Returns a one-line summary, such as
+     * "[lib/core] PULLED 1a2b3c4 -&gt; 5d6e7f8 in 1.2s".
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('[').append(path).append("] ").append(action);
+        if (branchSwitched) {
+            sb.append(" (branch switched)");
+        }
+        sb.append(' ').append(abbreviate(previousRevision)).append(" -> ").append(abbreviate(revision));
+        sb.append(" in ").append(millis / 1000).append('.').append(millis % 1000 / 100).append('s');
+        return sb.toString();
+    }
+
+    private static String abbreviate(final String revision) {
+        if (revision == null) {
+            return "none";
+        }
+        return revision.length() > 7 ? revision.substring(0, 7) : revision;
+    }
+}
@@ -0,0 +1,29 @@
+package hudson.plugins.gradle_repo;
+
+/**
+ * How an existing clone of the project or of a module is brought up to date.
+ */
+public enum UpdateStrategy {
+
+    /**
+     * "git pull origin &lt;branch&gt;", merging into whatever the workspace
+     * holds.
+     */
+    PULL("Pull (merge)"),
+
+    /**
+     * "git fetch origin &lt;branch&gt;" followed by "git reset --hard", so the
+     * workspace always ends up exactly at the remote branch head.
+     */
+    RESET("Fetch and hard reset");
+
+    private final String displayName;
+
+    UpdateStrategy(final String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
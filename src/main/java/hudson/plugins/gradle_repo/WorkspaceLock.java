@@ -0,0 +1,53 @@
+package hudson.plugins.gradle_repo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps background maintenance of a workspace from overlapping a checkout
+ * into it. A checkout waits for the lock, maintenance only runs when it can
+ * take it right away, and gives it up after the current repository once a
+ * checkout waits.
+ */
+final class WorkspaceLock {
+
+    private static final Map<String, WorkspaceLock> locks = new HashMap<String, WorkspaceLock>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private WorkspaceLock() {
+    }
+
+    /**
+     * Returns the lock of a workspace directory on a node.
+     */
+    static synchronized WorkspaceLock forNode(final String nodeName, final String workspace) {
+        final String key = nodeName + " " + workspace;
+        WorkspaceLock workspaceLock = locks.get(key);
+        if (workspaceLock == null) {
+            workspaceLock = new WorkspaceLock();
+            locks.put(key, workspaceLock);
+        }
+        return workspaceLock;
+    }
+
+    void lock() throws InterruptedException {
+        lock.lockInterruptibly();
+    }
+
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    /**
+     * Returns whether a checkout waits for the lock.
+     */
+    boolean hasWaiters() {
+        return lock.hasQueuedThreads();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+}
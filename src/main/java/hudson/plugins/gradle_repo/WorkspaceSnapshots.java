@@ -0,0 +1,331 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed tar snapshots of checked out workspaces, kept in a directory of
+ * the controller, so a build on a fresh agent restores the repositories and
+ * then only updates the ones which changed instead of cloning all of them.
+ * <p>
+ * Snapshots are grouped by job and named after a hash of the module
+ * revisions of their {@link ProjectState}. The nearest snapshot is the one
+ * of the state of the latest build, or else the newest of the job. A
+ * snapshot only holds the git directories and the tracked files of the
+ * repositories, see {@link TrackedContent}. The modification time of a
+ * snapshot is when it was taken; restoring it touches a marker file next to
+ * it instead, and the least recently used snapshots are deleted when the
+ * directory grows over its budget.
+ */
+final class WorkspaceSnapshots {
+
+    private static Logger debug = Logger.getLogger("hudson.plugins.gradle_repo.WorkspaceSnapshots");
+
+    /**
+     * The default directory name, under the Jenkins home.
+     */
+    static final String SNAPSHOTS_DIR = "gradle-repo-snapshots";
+
+    /**
+     * A job gets at most one new snapshot in this interval; a restored
+     * snapshot a few commits behind only costs a few fetches.
+     */
+    private static final long MIN_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static final String SUFFIX = ".tgz";
+
+    /**
+     * The suffix of the marker file touched when a snapshot is restored.
+     */
+    private static final String USED_SUFFIX = ".used";
+
+    /**
+     * Serializes the eviction passes of all builds.
+     */
+    private static final Object EVICTION_LOCK = new Object();
+
+    private final File root;
+    private final long budget;
+
+    /**
+     * @param root
+     *            The snapshot directory
+     * @param budget
+     *            The maximum size of the directory, in bytes
+     */
+    WorkspaceSnapshots(final File root, final long budget) {
+        this.root = root;
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the snapshot group of a job.
+     */
+    static String group(final String jobFullName) {
+        return sha1(jobFullName);
+    }
+
+    /**
+     * Returns the key of a state: a hash of the origin, branch and revision
+     * of every repository.
+     */
+    static String key(final ProjectState state) {
+        final StringBuilder sb = new StringBuilder();
+        for (ModuleState module : state.modules.values()) {
+            sb.append(module.getPath()).append('\t').append(module.getOrigin()).append('\t')
+                    .append(module.getBranch()).append('\t').append(module.getRevision()).append('\n');
+        }
+        return sha1(sb.toString());
+    }
+
+    /**
+     * Returns the nearest snapshot of a group, null if it has none.
+     *
+     * @param key
+     *            The key of the preferred state, null for the newest snapshot
+     */
+    File find(final String group, final String key) {
+        if (key != null) {
+            final File exact = new File(new File(root, group), key + SUFFIX);
+            if (exact.isFile()) {
+                return exact;
+            }
+        }
+        final File[] snapshots = list(new File(root, group));
+        File newest = null;
+        for (File snapshot : snapshots) {
+            if (newest == null || snapshot.lastModified() > newest.lastModified()) {
+                newest = snapshot;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Returns whether a snapshot of the given state should be taken: there
+     * is none yet and the newest of the group was taken more than
+     * {@link #MIN_INTERVAL} ago.
+     */
+    boolean isDue(final String group, final String key) {
+        if (new File(new File(root, group), key + SUFFIX).isFile()) {
+            return false;
+        }
+        final File newest = find(group, null);
+        return newest == null || System.currentTimeMillis() - newest.lastModified() > MIN_INTERVAL;
+    }
+
+    /**
+     * Extracts a snapshot into the workspace, streaming it to the agent.
+     */
+    void restore(final File snapshot, final FilePath workspace) throws IOException, InterruptedException {
+        touch(new File(snapshot.getPath() + USED_SUFFIX));
+        final InputStream in = new FileInputStream(snapshot);
+        try {
+            workspace.untarFrom(in, FilePath.TarCompression.GZIP);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the workspace, then evicts the least recently used
+     * snapshots over the budget.
+     *
+     * @param content
+     *            The files of the workspace to put in the snapshot
+     * @return the size of the snapshot in bytes
+     */
+    long save(final String group, final String key, final FilePath workspace, final TrackedContent content)
+            throws IOException, InterruptedException {
+        final File dir = new File(root, group);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("[repo] - Could not create " + dir);
+        }
+        final File tmp = File.createTempFile(key, ".tmp", dir);
+        try {
+            final OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                workspace.tar(out, content);
+            } finally {
+                out.close();
+            }
+            final File snapshot = new File(dir, key + SUFFIX);
+            if (!tmp.renameTo(snapshot)) {
+                throw new IOException("[repo] - Could not create " + snapshot);
+            }
+            evict();
+            return snapshot.length();
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                debug.warning("Could not delete " + tmp);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used snapshots until the directory fits the
+     * budget.
+     */
+    void evict() {
+        synchronized (EVICTION_LOCK) {
+            final List<File> snapshots = new ArrayList<File>();
+            long total = 0;
+            for (File group : list(root, true)) {
+                for (File snapshot : list(group)) {
+                    snapshots.add(snapshot);
+                    total += snapshot.length();
+                }
+            }
+            Collections.sort(snapshots, new Comparator<File>() {
+                public int compare(final File a, final File b) {
+                    return Long.compare(lastUsed(a), lastUsed(b));
+                }
+            });
+            for (File snapshot : snapshots) {
+                if (total <= budget) {
+                    break;
+                }
+                final long length = snapshot.length();
+                if (snapshot.delete()) {
+                    total -= length;
+                    debug.info("Evicted workspace snapshot " + snapshot);
+                    final File used = new File(snapshot.getPath() + USED_SUFFIX);
+                    if (used.exists() && !used.delete()) {
+                        debug.warning("Could not delete " + used);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns when a snapshot was last restored, or else taken.
+     */
+    private static long lastUsed(final File snapshot) {
+        return Math.max(snapshot.lastModified(), new File(snapshot.getPath() + USED_SUFFIX).lastModified());
+    }
+
+    private static void touch(final File file) throws IOException {
+        if (!file.exists()) {
+            new FileOutputStream(file).close();
+        } else if (!file.setLastModified(System.currentTimeMillis())) {
+            debug.warning("Could not touch " + file);
+        }
+    }
+
+    private static File[] list(final File dir) {
+        return list(dir, false);
+    }
+
+    private static File[] list(final File dir, final boolean directories) {
+        final File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                return directories ? file.isDirectory() : file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Scans the git directories of the repositories of a workspace and the
+     * files in their index, leaving out whatever else is in the workspace.
+     * Files of the index missing from the working tree, as outside the cone
+     * of a sparse checkout, are skipped.
+     */
+    static final class TrackedContent extends DirScanner {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> gitDirs = new ArrayList<String>();
+        private final List<String> files = new ArrayList<String>();
+
+        /**
+         * Adds a repository.
+         *
+         * @param path
+         *            The path of the repository in the workspace, empty for
+         *            the workspace itself
+         * @param trackedFiles
+         *            The files in its index, relative to it
+         */
+        void add(final String path, final List<String> trackedFiles) {
+            final String prefix = path.isEmpty() ? "" : path + "/";
+            gitDirs.add(prefix + ".git");
+            for (String file : trackedFiles) {
+                files.add(prefix + file);
+            }
+        }
+
+        @Override
+        public void scan(final File dir, final FileVisitor visitor) throws IOException {
+            for (String gitDir : gitDirs) {
+                scanTree(new File(dir, gitDir), gitDir, visitor);
+            }
+            for (String file : files) {
+                final File f = new File(dir, file);
+                if (Files.isSymbolicLink(f.toPath()) || f.isFile()) {
+                    scanSingle(f, file, visitor);
+                }
+            }
+        }
+
+        private static void scanTree(final File f, final String relativePath, final FileVisitor visitor)
+                throws IOException {
+            if (!f.exists() && !Files.isSymbolicLink(f.toPath())) {
+                return;
+            }
+            scanSingle(f, relativePath, visitor);
+            final File[] children = f.isDirectory() ? f.listFiles() : null;
+            if (children != null) {
+                for (File child : children) {
+                    scanTree(child, relativePath + "/" + child.getName(), visitor);
+                }
+            }
+        }
+
+        private static void scanSingle(final File f, final String relativePath, final FileVisitor visitor)
+                throws IOException {
+            if (visitor.understandsSymlink() && Files.isSymbolicLink(f.toPath())) {
+                visitor.visitSymlink(f, Files.readSymbolicLink(f.toPath()).toString(), relativePath);
+            } else {
+                visitor.visit(f, relativePath);
+            }
+        }
+    }
+
+    private static String sha1(final String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
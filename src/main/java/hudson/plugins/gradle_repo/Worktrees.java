@@ -0,0 +1,171 @@
+package hudson.plugins.gradle_repo;
+
+import hudson.FilePath;
+import hudson.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clones made as git worktrees of a shared {@link ObjectStore} per origin,
+ * kept in a directory of the node, instead of full clones. Every change to
+ * a store is made while holding its lock.
+ */
+final class Worktrees {
+
+    private Worktrees() {
+    }
+
+    /**
+     * Checks whether a clone is a git worktree of a shared object store,
+     * whose .git is a file rather than a directory.
+     */
+    static boolean isWorktree(FilePath moduleDir) {
+        try {
+            FilePath git = new FilePath(moduleDir, ".git");
+            return git.exists() && !git.isDirectory();
+        } catch (Exception e) {
+            throw new RuntimeException("[repo] - fail to check file [" + moduleDir.getName() + "] is a worktree or not.");
+        }
+    }
+
+    /**
+     * Returns the object store a worktree is attached to, from the
+     * "gitdir: &lt;store&gt;/worktrees/&lt;name&gt;" line of its .git file.
+     */
+    static FilePath getObjectStore(FilePath moduleDir) {
+        try {
+            String gitdir = new FilePath(moduleDir, ".git").readToString().trim();
+            if (!gitdir.startsWith("gitdir:")) {
+                throw new RuntimeException("[repo] - [" + moduleDir.getName() + "] is not a worktree.");
+            }
+            return new FilePath(moduleDir.getChannel(), gitdir.substring("gitdir:".length()).trim()).getParent().getParent();
+        } catch (IOException e) {
+            throw new RuntimeException("[repo] - fail to read [" + moduleDir.getName() + "/.git].");
+        }
+    }
+
+    /**
+     * Returns the lock of a store, taken until {@link ObjectStore#unlock()}.
+     */
+    static ObjectStore lock(GitHelper git, FilePath store) {
+        final ObjectStore lock = ObjectStore.forNode(git.getOptions().getNodeName(), store.getRemote());
+        try {
+            lock.lock();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("[repo] - interrupted while waiting for [" + store.getRemote() + "]");
+        }
+        return lock;
+    }
+
+    /**
+     * Attaches a new detached worktree to the object store of the origin,
+     * creating the store on first use and fetching the branch into it
+     * otherwise. Worktrees whose directory was deleted are pruned first so
+     * their paths can be reused.
+     *
+     * @param storeRoot
+     *            The directory holding the stores
+     */
+    static void add(GitHelper git, FilePath storeRoot, FilePath moduleDir, String repositoryUrl, String branch,
+                    List<String> sparsePaths) {
+        final String url = git.expand(repositoryUrl);
+        final String ref = branch == null ? "HEAD" : git.expand(branch);
+        final FilePath store = new FilePath(storeRoot, Util.getDigestOf(url) + ".git");
+        final ObjectStore lock = lock(git, store);
+        try {
+            List<String> commands = new ArrayList<String>(6);
+            if (!new FilePath(store, "HEAD").exists()) {
+                store.mkdirs();
+                store.deleteContents();
+                commands.add("git");
+                commands.add("clone");
+                commands.add("--mirror");
+                commands.add(url);
+                commands.add(store.getName());
+                git.execute(storeRoot, commands, git.getLogger(), GitHelper.Operation.CLONE, repositoryUrl, store);
+            } else if (branch != null) {
+                fetchIntoStore(git, store, repositoryUrl, ref);
+            }
+
+            commands.clear();
+            commands.add("git");
+            commands.add("worktree");
+            commands.add("prune");
+            git.execute(store, commands);
+
+            commands.clear();
+            commands.add("git");
+            commands.add("worktree");
+            commands.add("add");
+            commands.add("--detach");
+            if (!sparsePaths.isEmpty()) {
+                // populated once the sparse paths are set
+                commands.add("--no-checkout");
+            }
+            commands.add(moduleDir.getRemote());
+            commands.add(ref);
+            git.execute(store, commands);
+        } catch (IOException e) {
+            throw new RuntimeException("[repo] - fail to prepare object store [" + store.getRemote() + "].");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("[repo] - interrupted while preparing [" + store.getRemote() + "]");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Brings a worktree to the head of the remote branch: the branch is
+     * fetched into the shared object store, then the worktree is detached
+     * at it.
+     *
+     * @param clean
+     *            Also run "git clean -fdx" when the revision moved
+     * @return the revision the worktree is now at, or null when it was not
+     *         read
+     */
+    static String update(GitHelper git, FilePath moduleDir, String repositoryUrl, String branch, boolean clean) {
+        final FilePath store = getObjectStore(moduleDir);
+        final ObjectStore lock = lock(git, store);
+        try {
+            fetchIntoStore(git, store, repositoryUrl, branch);
+        } finally {
+            lock.unlock();
+        }
+
+        final String previousRevision = clean ? git.getRevision(moduleDir) : null;
+        List<String> commands = new ArrayList<String>(5);
+        commands.add("git");
+        commands.add("checkout");
+        commands.add("-f");
+        commands.add("--detach");
+        commands.add("refs/heads/" + branch);
+        git.execute(moduleDir, commands);
+
+        if (!clean) {
+            return null;
+        }
+        final String revision = git.getRevision(moduleDir);
+        if (!revision.equals(previousRevision)) {
+            commands.clear();
+            commands.add("git");
+            commands.add("clean");
+            commands.add("-fdx");
+            git.execute(moduleDir, commands);
+        }
+        return revision;
+    }
+
+    private static void fetchIntoStore(GitHelper git, FilePath store, String repositoryUrl, String branch) {
+        List<String> commands = new ArrayList<String>(4);
+        commands.add("git");
+        commands.add("fetch");
+        commands.add("origin");
+        commands.add("+refs/heads/" + branch + ":refs/heads/" + branch);
+        git.execute(store, commands, git.getLogger(), GitHelper.Operation.FETCH, repositoryUrl, null);
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class AdaptiveLimitTest {
+
+    // limits are kept per node for the life of the controller, so every test
+    // uses its own node
+
+    @Test
+    public void startsHalfwayBetweenTheBounds() {
+        assertEquals(4, AdaptiveLimit.forNode("starts", "host").get(1, 8));
+        assertEquals(2, AdaptiveLimit.forNode("starts", "other").get(2, 2));
+    }
+
+    @Test
+    public void isKeptPerNodeAndHost() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("kept", "host");
+        assertSame(limit, AdaptiveLimit.forNode("kept", "host"));
+        assertNotSame(limit, AdaptiveLimit.forNode("kept", "other"));
+        assertNotSame(limit, AdaptiveLimit.forNode("kept-too", "host"));
+    }
+
+    @Test
+    public void risesByOneAfterAWindowOfUsualCommands() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("rises", "host");
+        // every command adds 1 / limit, so it takes a little over a window
+        for (int i = 0; i < 4; i++) {
+            limit.record("fetch a", 1000, true, 1, 8);
+            assertEquals(4, limit.get(1, 8));
+        }
+        limit.record("fetch a", 1000, true, 1, 8);
+        assertEquals(5, limit.get(1, 8));
+    }
+
+    @Test
+    public void fallsByAQuarterOnceAWindowWhenCommandsFail() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("falls", "host");
+        for (int i = 0; i < 3; i++) {
+            limit.record("fetch a", 1000, false, 1, 8);
+            assertEquals(4, limit.get(1, 8));
+        }
+        limit.record("fetch a", 1000, false, 1, 8);
+        assertEquals(3, limit.get(1, 8));
+        limit.record("fetch a", 1000, false, 1, 8);
+        limit.record("fetch a", 1000, false, 1, 8);
+        assertEquals(3, limit.get(1, 8));
+        limit.record("fetch a", 1000, false, 1, 8);
+        assertEquals(2, limit.get(1, 8));
+    }
+
+    @Test
+    public void fallsWhenACommandTakesMuchLongerThanUsual() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("slow", "host");
+        for (int i = 0; i < 3; i++) {
+            limit.record("fetch a", 1000, true, 1, 8);
+        }
+        assertEquals(4, limit.get(1, 8));
+        limit.record("fetch a", 5000, true, 1, 8);
+        assertEquals(3, limit.get(1, 8));
+    }
+
+    @Test
+    public void comparesCommandsWithTheirOwnOperation() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("operations", "host");
+        for (int i = 0; i < 3; i++) {
+            limit.record("fetch a", 1000, true, 1, 8);
+        }
+        // the first clone has no usual time yet
+        limit.record("clone b", 60000, true, 1, 8);
+        limit.record("clone b", 60000, true, 1, 8);
+        assertEquals(5, limit.get(1, 8));
+    }
+
+    @Test
+    public void ignoresSlownessBelowASecond() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("fast", "host");
+        for (int i = 0; i < 3; i++) {
+            limit.record("fetch a", 10, true, 1, 8);
+        }
+        limit.record("fetch a", 2000, true, 1, 8);
+        limit.record("fetch a", 2000, true, 1, 8);
+        assertEquals(5, limit.get(1, 8));
+    }
+
+    @Test
+    public void staysWithinTheBounds() {
+        final AdaptiveLimit limit = AdaptiveLimit.forNode("bounds", "host");
+        assertEquals(4, limit.get(1, 8));
+        assertEquals(2, limit.get(1, 2));
+        for (int i = 0; i < 10; i++) {
+            limit.record("fetch a", 1000, true, 1, 2);
+        }
+        assertEquals(2, limit.get(1, 2));
+        for (int i = 0; i < 10; i++) {
+            limit.record("fetch a", 1000, false, 1, 2);
+        }
+        assertEquals(1, limit.get(1, 2));
+        assertEquals(3, limit.get(3, 8));
+    }
+}
@@ -0,0 +1,99 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChangeLogTest {
+
+    private static final String MARK_A = "[[<as7d9m1R_MARK_A>]]";
+    private static final String MARK_B = "[[<as7d9m1R_MARK_B>]";
+
+    /**
+     * Returns one commit as printed by the "git log --raw" of
+     * {@link ChangeLog}.
+     */
+    private static String commit(final String revision, final String... rawLines) {
+        final StringBuilder out = new StringBuilder();
+        out.append('"').append(MARK_A);
+        out.append(revision).append(MARK_B);
+        out.append("Author").append(MARK_B);
+        out.append("author@example.com").append(MARK_B);
+        out.append("Mon, 1 Oct 2018 10:00:00 +0800").append(MARK_B);
+        out.append("1538359200").append(MARK_B);
+        out.append("Committer").append(MARK_B);
+        out.append("committer@example.com").append(MARK_B);
+        out.append("Mon, 1 Oct 2018 10:05:00 +0800").append(MARK_B);
+        out.append("1538359500").append(MARK_B);
+        out.append("Subject\n\nBody\n").append(MARK_B);
+        out.append("\"\n\n");
+        for (String line : rawLines) {
+            out.append(line).append('\n');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void parsesPlainChanges() {
+        final List<ChangeLogEntry> entries = ChangeLog.parseGitLog("lib/a", commit("1111",
+                ":100644 100644 1234567... 89abcde... M\tsrc/Edited.java",
+                ":000000 100644 0000000 89abcde A\tsrc/Added.java",
+                ":100644 000000 1234567 0000000 D\tsrc/Deleted.java"));
+        assertEquals(1, entries.size());
+        final ChangeLogEntry entry = entries.get(0);
+        assertEquals("1111", entry.getRevision());
+        assertEquals(1538359200000L, entry.getTimestamp());
+        final List<ChangeLogEntry.ModifiedFile> files = entry.getModifiedFiles();
+        assertEquals(3, files.size());
+        assertEquals("src/Edited.java", files.get(0).getPath());
+        assertEquals('M', files.get(0).getAction());
+        assertNull(files.get(0).getSrcPath());
+        assertEquals('A', files.get(1).getAction());
+        assertEquals('D', files.get(2).getAction());
+    }
+
+    @Test
+    public void parsesRenameWithScore() {
+        final List<ChangeLogEntry> entries = ChangeLog.parseGitLog("lib/a", commit("2222",
+                ":100644 100644 1234567... 89abcde... R087\tsrc/Old.java\tsrc/New.java"));
+        final ChangeLogEntry.ModifiedFile file = entries.get(0).getModifiedFiles().get(0);
+        assertEquals('R', file.getAction());
+        assertEquals("src/Old.java", file.getSrcPath());
+        assertEquals("src/New.java", file.getPath());
+        assertEquals(ChangeLogEntry.ModifiedFile.RENAME, file.getEditType());
+    }
+
+    @Test
+    public void parsesCopyWithoutDots() {
+        final List<ChangeLogEntry> entries = ChangeLog.parseGitLog("lib/a", commit("3333",
+                ":100644 100644 1234567 89abcde C100\tsrc/A.java\tsrc/Copy of A.java"));
+        final ChangeLogEntry.ModifiedFile file = entries.get(0).getModifiedFiles().get(0);
+        assertEquals('C', file.getAction());
+        assertEquals("src/A.java", file.getSrcPath());
+        assertEquals("src/Copy of A.java", file.getPath());
+        assertEquals(ChangeLogEntry.ModifiedFile.COPY, file.getEditType());
+    }
+
+    @Test
+    public void keepsTabsOfOtherActionsInThePath() {
+        final List<ChangeLogEntry> entries = ChangeLog.parseGitLog("lib/a", commit("4444",
+                ":100644 100644 1234567 89abcde M\tdir\twith tab"));
+        final ChangeLogEntry.ModifiedFile file = entries.get(0).getModifiedFiles().get(0);
+        assertEquals("dir\twith tab", file.getPath());
+        assertNull(file.getSrcPath());
+    }
+
+    @Test
+    public void parsesSeveralCommitsAndSkipsOtherLines() {
+        final List<ChangeLogEntry> entries = ChangeLog.parseGitLog("lib/a",
+                commit("5555", ":100644 100644 1234567 89abcde R100\ta\tb", "not a raw line")
+                        + commit("6666"));
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).getModifiedFiles().size());
+        assertEquals("b", entries.get(0).getModifiedFiles().get(0).getPath());
+        assertEquals(0, entries.get(1).getModifiedFiles().size());
+    }
+}
@@ -0,0 +1,88 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(new File(tmp.getRoot(), "ws@tmp"), Checkpoint.FILE);
+    }
+
+    @Test
+    public void isEmptyWithoutAFile() {
+        assertNull(Checkpoint.open(file, 7).getRevision(module("a", "main")));
+    }
+
+    @Test
+    public void returnsTheRevisionsItWasGiven() throws Exception {
+        final Checkpoint checkpoint = Checkpoint.open(file, 7);
+        checkpoint.add(module("a", "main"), "aaaa");
+        assertEquals("aaaa", checkpoint.getRevision(module("a", "main")));
+        assertNull(checkpoint.getRevision(module("b", "main")));
+    }
+
+    @Test
+    public void isHonoredByTheSameAndTheNextBuildOnly() throws Exception {
+        Checkpoint.open(file, 7).add(module("a", "main"), "aaaa");
+        assertEquals("aaaa", Checkpoint.open(file, 7).getRevision(module("a", "main")));
+        assertEquals("aaaa", Checkpoint.open(file, 8).getRevision(module("a", "main")));
+        assertNull(Checkpoint.open(file, 9).getRevision(module("a", "main")));
+        assertNull(Checkpoint.open(file, 6).getRevision(module("a", "main")));
+    }
+
+    @Test
+    public void keepsTheLatestRevisionOfARepository() throws Exception {
+        Checkpoint.open(file, 7).add(module("a", "main"), "aaaa");
+        Checkpoint.open(file, 8).add(module("a", "main"), "bbbb");
+        assertEquals("bbbb", Checkpoint.open(file, 8).getRevision(module("a", "main")));
+    }
+
+    @Test
+    public void ignoresAnotherTarget() throws Exception {
+        Checkpoint.open(file, 7).add(module("a", "main"), "aaaa");
+        final Checkpoint checkpoint = Checkpoint.open(file, 8);
+        assertNull(checkpoint.getRevision(module("a", "release")));
+        assertNull(checkpoint.getRevision(
+                ModuleState.constructCachedInstance("a", "ssh://host/other/a", "main", null)));
+        assertNull(checkpoint.getRevision(ModuleState.constructCachedInstance("a", "ssh://host/group/a", "main",
+                null, Arrays.asList("src", "docs"))));
+    }
+
+    @Test
+    public void comparesSparsePaths() throws Exception {
+        final ModuleState sparse = ModuleState.constructCachedInstance("a", "ssh://host/group/a", "main", null,
+                Arrays.asList("src", "docs"));
+        Checkpoint.open(file, 7).add(sparse, "aaaa");
+        final Checkpoint checkpoint = Checkpoint.open(file, 8);
+        assertEquals("aaaa", checkpoint.getRevision(sparse));
+        assertNull(checkpoint.getRevision(module("a", "main")));
+    }
+
+    @Test
+    public void deletesAStaleFile() throws Exception {
+        Checkpoint.open(file, 7).add(module("a", "main"), "aaaa");
+        file.setLastModified(System.currentTimeMillis() - Checkpoint.MAX_AGE - 60000);
+        assertNull(Checkpoint.open(file, 8).getRevision(module("a", "main")));
+        assertFalse(file.exists());
+    }
+
+    private static ModuleState module(final String path, final String branch) {
+        return ModuleState.constructCachedInstance(path, "ssh://host/group/" + path, branch, null);
+    }
+}
@@ -0,0 +1,88 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModuleDurationsTest {
+
+    @Test
+    public void makespanOfOneThreadIsTheSum() {
+        assertEquals(560, ModuleDurations.makespan(new long[] {10, 300, 50, 200}, 1));
+    }
+
+    @Test
+    public void makespanStartsTheLongestFirst() {
+        // 300 on one thread, 200 + 50 + 10 on the other
+        assertEquals(300, ModuleDurations.makespan(new long[] {10, 300, 50, 200}, 2));
+        assertEquals(7, ModuleDurations.makespan(new long[] {3, 3, 2, 2, 2}, 2));
+    }
+
+    @Test
+    public void makespanIsTheLongestTaskWithEnoughThreads() {
+        assertEquals(300, ModuleDurations.makespan(new long[] {10, 300, 50, 200}, 8));
+    }
+
+    @Test
+    public void makespanOfNothingIsZero() {
+        assertEquals(0, ModuleDurations.makespan(new long[0], 4));
+    }
+
+    @Test
+    public void makespanTreatsMissingThreadsAsOne() {
+        assertEquals(60, ModuleDurations.makespan(new long[] {10, 20, 30}, 0));
+    }
+
+    @Test
+    public void makespanLeavesTheDurationsAlone() {
+        final long[] durations = {30, 10, 20};
+        ModuleDurations.makespan(durations, 2);
+        assertEquals(Arrays.toString(new long[] {30, 10, 20}), Arrays.toString(durations));
+    }
+
+    @Test
+    public void predictsUnknownBeforeAnyBuild() {
+        assertEquals(ModuleDurations.UNKNOWN, new ModuleDurations().predict("a", true));
+        assertEquals(ModuleDurations.UNKNOWN, new ModuleDurations().predictChangeLog("a"));
+    }
+
+    @Test
+    public void averagesWeighTheLatestBuildAsAThird() {
+        final ModuleDurations durations = new ModuleDurations();
+        durations.record(result("a", UpdateResult.Action.PULLED, "1", "2", 300));
+        assertEquals(300, durations.predict("a", false));
+        durations.record(result("a", UpdateResult.Action.PULLED, "2", "3", 600));
+        assertEquals(400, durations.predict("a", false));
+        assertEquals(ModuleDurations.UNKNOWN, durations.predict("a", true));
+    }
+
+    @Test
+    public void recordsClonesApartFromFetches() {
+        final ModuleDurations durations = new ModuleDurations();
+        durations.record(result("a", UpdateResult.Action.CLONED, null, "1", 5000));
+        durations.record(result("b", UpdateResult.Action.PINNED, null, "1", 4000));
+        durations.record(result("c", UpdateResult.Action.PINNED, "1", "2", 700));
+        assertEquals(5000, durations.predict("a", true));
+        assertEquals(ModuleDurations.UNKNOWN, durations.predict("a", false));
+        assertEquals(4000, durations.predict("b", true));
+        assertEquals(700, durations.predict("c", false));
+    }
+
+    @Test
+    public void skipsRepositoriesThatDidNotRunGit() {
+        final ModuleDurations durations = new ModuleDurations();
+        durations.record(result("a", UpdateResult.Action.PINNED, "1", "1", 10));
+        durations.record(result("b", UpdateResult.Action.RESUMED, "1", "2", 10));
+        assertEquals(ModuleDurations.UNKNOWN, durations.predict("a", false));
+        assertEquals(ModuleDurations.UNKNOWN, durations.predict("b", false));
+    }
+
+    private static List<UpdateResult> result(final String path, final UpdateResult.Action action,
+            final String previousRevision, final String revision, final long millis) {
+        return Collections.singletonList(new UpdateResult(path, action, previousRevision, revision, false, millis));
+    }
+}
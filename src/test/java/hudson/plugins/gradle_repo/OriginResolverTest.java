@@ -0,0 +1,71 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OriginResolverTest {
+
+    @Test
+    public void canonicalIsTheSameForEveryFormOfAUrl() {
+        final String expected = "git.example.com/group/name";
+        assertEquals(expected, OriginResolver.canonical("git@git.example.com:group/name.git"));
+        assertEquals(expected, OriginResolver.canonical("ssh://git@git.example.com:22/group/name"));
+        assertEquals(expected, OriginResolver.canonical("https://git.example.com/group/name/"));
+        assertEquals(expected, OriginResolver.canonical("https://user@git.example.com/group/name.git"));
+        assertEquals(expected, OriginResolver.canonical("  git@git.example.com:group/name.git\n"));
+    }
+
+    @Test
+    public void canonicalIgnoresTheCaseOfTheHostOnly() {
+        assertEquals("git.example.com/Group/Name", OriginResolver.canonical("git@GIT.Example.com:Group/Name.git"));
+    }
+
+    @Test
+    public void canonicalNormalizesThePath() {
+        assertEquals("git.example.com/group/name",
+                OriginResolver.canonical("git@git.example.com:group/./sub/../name.git"));
+        assertEquals("git.example.com/group/name",
+                OriginResolver.canonical("ssh://git@git.example.com//group//name.git"));
+    }
+
+    @Test
+    public void canonicalKeepsOtherRepositoriesApart() {
+        assertEquals("git.example.com/group/name-lib", OriginResolver.canonical("git@git.example.com:group/name-lib.git"));
+        assertEquals("other.example.com/group/name", OriginResolver.canonical("git@other.example.com:group/name.git"));
+    }
+
+    @Test
+    public void canonicalLeavesAPathAboveItsRootAlone() {
+        assertEquals("git@git.example.com:../name.git", OriginResolver.canonical(" git@git.example.com:../name.git "));
+        assertEquals("https://git.example.com/group/../../name",
+                OriginResolver.canonical("https://git.example.com/group/../../name"));
+        assertFalse(OriginResolver.isCanonical("git@git.example.com:../name.git"));
+        assertFalse(OriginResolver.isCanonical("https://git.example.com/../name"));
+        assertTrue(OriginResolver.isCanonical("https://git.example.com/group/../name"));
+    }
+
+    @Test
+    public void resolveJoinsLikeTheOldManifestParsing() {
+        assertEquals("git@host:/app.git", OriginResolver.resolve("git@host:", "app"));
+        assertEquals("git@host:/sub/app.git", OriginResolver.resolve("git@host:", "./x/../sub/app"));
+        assertEquals("git@host:group/app.git", OriginResolver.resolve("git@host:group", "app"));
+        assertEquals("git@host:group/app.git", OriginResolver.resolve("git@host:group/", "app.git"));
+        assertEquals("git@host:app.git", OriginResolver.resolve("git@host:group", "../app"));
+        assertEquals("git@host:/group/app.git", OriginResolver.resolve("git@host:/group", "app"));
+        assertEquals("git@host:/app.git", OriginResolver.resolve("git@host:/group", "../app"));
+        assertEquals("https://host/group/app.git", OriginResolver.resolve("https://host/group", "app"));
+        assertEquals("https://host/group/app.git", OriginResolver.resolve("https://host/group/", "app"));
+        assertEquals("https://host/app.git", OriginResolver.resolve("https://host/group", "../app"));
+        assertEquals("https://host/app.git", OriginResolver.resolve("https://host", "app"));
+        assertEquals("ssh://git@host:22/a/app.git", OriginResolver.resolve("ssh://git@host:22/a/b", "../app"));
+    }
+
+    @Test
+    public void resolveNoLongerDoublesTheSlashAfterARootBase() {
+        assertEquals("https://host/app.git", OriginResolver.resolve("https://host/", "app"));
+        assertEquals("git@host:/app.git", OriginResolver.resolve("git@host:/", "app"));
+    }
+}
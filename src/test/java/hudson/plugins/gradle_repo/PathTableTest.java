@@ -0,0 +1,63 @@
+package hudson.plugins.gradle_repo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PathTableTest {
+
+    @Test
+    public void internsEachPathOnce() {
+        final PathTable table = new PathTable();
+        final int id = table.intern("src/main/java/Foo.java");
+        assertEquals(id, table.intern("src/main/java/Foo.java"));
+        assertNotEquals(id, table.intern("src/main/java/Bar.java"));
+    }
+
+    @Test
+    public void sharesDirectories() {
+        final PathTable table = new PathTable();
+        table.intern("src/main/java/Foo.java");
+        final int size = table.size();
+        table.intern("src/main/java/Bar.java");
+        assertEquals(size + 1, table.size());
+    }
+
+    @Test
+    public void returnsInternedPaths() {
+        final PathTable table = new PathTable();
+        final int file = table.intern("build.gradle");
+        final int nested = table.intern("lib/a/src/A.java");
+        final int prefix = table.intern("lib/a");
+        assertEquals("build.gradle", table.path(file));
+        assertEquals("lib/a/src/A.java", table.path(nested));
+        assertEquals("lib/a", table.path(prefix));
+    }
+
+    @Test
+    public void keepsEmptySegments() {
+        final PathTable table = new PathTable();
+        assertEquals("a//b/", table.path(table.intern("a//b/")));
+    }
+
+    @Test
+    public void readsPathsAfterTrim() {
+        final PathTable table = new PathTable();
+        final int[] ids = new int[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.intern("module" + (i % 7) + "/src/File" + i + ".java");
+        }
+        table.trim();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("module" + (i % 7) + "/src/File" + i + ".java", table.path(ids[i]));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesPathsAfterTrim() {
+        final PathTable table = new PathTable();
+        table.trim();
+        table.intern("a");
+    }
+}